@@ -0,0 +1,397 @@
+package control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.classifier4J.summariser.SimpleSummariser;
+
+import rss_processing.Atom;
+import rss_processing.RSSReader;
+
+/**
+ * The BatchRunner class backfills the AtAGlance pages from an archive of saved feed documents,
+ * rather than from the live feeds. All of the documents in the archive directory are parsed, and
+ * all of their articles summarized, in parallel on a ForkJoinPool. Articles saved more than once
+ * are only summarized once; the copy from the last document, in file name order, is kept, and
+ * near-duplicates of another article share its summaries. The pages are then written in a single
+ * pass by a TerracedNews, with every article shown under its category.
+ * 
+ * Summarizing is by far the slowest part of a batch, so each article's summaries are appended to a
+ * checkpoint file as soon as they are made. A batch that is stopped and run again reads them back
+ * and only summarizes the articles it has not seen.
+ * 
+ * @see control.TerracedNews
+ */
+public class BatchRunner {
+	private File archiveDir = null; //the directory of saved feed documents
+	private TerracedNews news = null; //writes the pages
+	private File checkpointFile = null; //the File the summaries made so far are appended to
+	private Hashtable<String, String[]> checkpoint = null; //the summaries read back from the checkpoint, keyed by article
+	private DataOutputStream checkpointOut = null; //appends new summaries to the checkpoint file
+	private ForkJoinPool pool = null; //runs the parse and summarize tasks
+	private AtomicInteger progress = null; //the number of items of the current stage done
+	
+	private static final String CHECKPOINT_NAME = "batch.checkpoint";
+	private static final int SUMMARIZE_THRESHOLD = 8; //Number of articles below which a summarize task stops splitting
+	private static final int PROGRESS_STEPS = 20; //Number of progress lines printed for each stage
+	
+	/**
+	 * Returns the key articles are deduplicated by: the article's URL, or its title if it has none.
+	 * 
+	 * @param article The Atom of the article
+	 * @return The String key, or null if the article has neither
+	 */
+	private String getArticleKey (Atom article) {
+		String retval = article.getGuid(); //empty rather than null when the element is missing
+		
+		if (retval.length() == 0) {
+			retval = article.getTitle();
+		}
+		
+		if (retval.length() == 0) {
+			retval = null;
+		}
+		
+		return retval;
+	}//end String getArticleKey (Atom)
+	
+	/**
+	 * Counts one more item of the current stage as done, printing the progress every
+	 * 1/PROGRESS_STEPS of the stage.
+	 * 
+	 * @param stage The String name of the stage
+	 * @param total The int number of items in the stage
+	 */
+	private void reportProgress (String stage, int total) {
+		int done = this.progress.incrementAndGet();
+		
+		if ((done == total) || ((done * PROGRESS_STEPS / total) != ((done - 1) * PROGRESS_STEPS / total))) {
+			System.err.printf("[BatchRunner] %s %d/%d\n", stage, done, total);
+		}
+	}//end void reportProgress (String, int)
+	
+	/**
+	 * Writes the given String as an int byte length followed by its UTF-8 bytes.
+	 * 
+	 * @param out The DataOutputStream to write to
+	 * @param text The String to write
+	 * @throws IOException
+	 */
+	private void writeString (DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}//end void writeString (DataOutputStream, String)
+	
+	/**
+	 * Reads a String written by writeString.
+	 * 
+	 * @param in The DataInputStream to read from
+	 * @return The String read
+	 * @throws IOException, an EOFException if the stream ends first
+	 */
+	private String readString (DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		
+		in.readFully(bytes);
+		
+		return new String(bytes, "UTF-8");
+	}//end String readString (DataInputStream)
+	
+	/**
+	 * Reads back the summaries recorded by an earlier batch and opens the checkpoint file for
+	 * appending. Each record is the article key followed by the short, medium and long summary, all
+	 * written by writeString. A record cut short by a stopped batch is dropped.
+	 * 
+	 * @throws IOException if the checkpoint file can not be opened
+	 */
+	private void openCheckpoint () throws IOException {
+		long validLength = 0;
+		
+		if (this.checkpointFile.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.checkpointFile)));
+			
+			try {
+				while (true) {
+					String key = this.readString(in);
+					String[] texts = new String[TerracedNews.SUMMARY_LENGTHS.length];
+					long recordLength = 4 + key.getBytes("UTF-8").length;
+					
+					for (int i = 0; i < texts.length; i++) {
+						texts[i] = this.readString(in);
+						recordLength += 4 + texts[i].getBytes("UTF-8").length;
+					}
+					
+					this.checkpoint.put(key, texts);
+					validLength += recordLength;
+				}
+			} catch (EOFException eofe) {
+				//the end of the checkpoint, or of the last complete record
+			} finally {
+				in.close();
+			}
+			
+			System.err.printf("[BatchRunner] Resuming with %d articles already summarized\n", this.checkpoint.size());
+		}
+		
+		FileOutputStream checkpointStream = new FileOutputStream(this.checkpointFile, true);
+		checkpointStream.getChannel().truncate(validLength);
+		this.checkpointOut = new DataOutputStream(new BufferedOutputStream(checkpointStream));
+	}//end void openCheckpoint ()
+	
+	/**
+	 * Appends the summaries of an article to the checkpoint file.
+	 * 
+	 * @param key The String key of the article
+	 * @param texts The String[] of the short, medium and long summary text
+	 * @throws IOException
+	 */
+	private synchronized void appendCheckpoint (String key, String[] texts) throws IOException {
+		this.writeString(this.checkpointOut, key);
+		
+		for (int i = 0; i < texts.length; i++) {
+			this.writeString(this.checkpointOut, texts[i]);
+		}
+		
+		this.checkpointOut.flush();
+	}//end void appendCheckpoint (String, String[])
+	
+	/**
+	 * Parses a range of the saved feed documents, splitting the range in half until a single
+	 * document is left. The articles are returned in file order.
+	 */
+	private class ParseTask extends RecursiveTask<Vector<Atom>> {
+		private File[] files = null; //all of the saved feed documents
+		private int start = 0; //the index of the first document to parse
+		private int end = 0; //the index after the last document to parse
+		
+		private static final long serialVersionUID = 1L; //Tasks are never serialized, but RecursiveTask is Serializable
+		
+		/**
+		 * Implementing the compute method, which parses the documents of the range.
+		 * 
+		 * @return The Vector<Atom> of the articles read
+		 */
+		protected Vector<Atom> compute () {
+			Vector<Atom> retval = new Vector<Atom>();
+			
+			if (this.end - this.start == 1) {
+				try {
+					//Text is kept on the heap, the archive is only read once
+					retval = new FeedTask(this.files[this.start].toURI().toString(), RSSReader.DEFAULT_TIMEOUT).call();
+				} catch (Exception e) {
+					System.err.printf("[BatchRunner] Error reading %s: %s\n", this.files[this.start].getPath(), e);
+				}
+				
+				reportProgress("Parsed", this.files.length);
+			} else if (this.end - this.start > 1) {
+				int middle = (this.start + this.end) / 2;
+				ParseTask second = new ParseTask(this.files, middle, this.end);
+				
+				second.fork();
+				retval.addAll(new ParseTask(this.files, this.start, middle).compute());
+				retval.addAll(second.join());
+			}
+			
+			return retval;
+		}//end Vector<Atom> compute ()
+		
+		/**
+		 * Constructor, which initializes the range of documents.
+		 * 
+		 * @param files The File[] of all of the saved feed documents
+		 * @param start The int index of the first document to parse
+		 * @param end The int index after the last document to parse
+		 */
+		private ParseTask (File[] files, int start, int end) {
+			this.files = files;
+			this.start = start;
+			this.end = end;
+		}//end constructor
+	}//end class ParseTask
+	
+	/**
+	 * Summarizes a range of the articles, splitting the range in half until no more than
+	 * SUMMARIZE_THRESHOLD articles are left.
+	 */
+	private class SummarizeTask extends RecursiveAction {
+		private Vector<Atom> articles = null; //all of the articles to summarize
+		private String[][] texts = null; //the summaries of each article, filled in by the tasks
+		private int start = 0; //the index of the first article to summarize
+		private int end = 0; //the index after the last article to summarize
+		
+		private static final long serialVersionUID = 1L; //Tasks are never serialized, but RecursiveAction is Serializable
+		
+		/**
+		 * Implementing the compute method, which summarizes the articles of the range.
+		 */
+		protected void compute () {
+			if (this.end - this.start <= SUMMARIZE_THRESHOLD) {
+				SimpleSummariser summarizer = new SimpleSummariser(); //one per task, so none is shared between threads
+				
+				for (int i = this.start; i < this.end; i++) {
+					Atom article = this.articles.get(i);
+					
+					this.texts[i] = new String[TerracedNews.SUMMARY_LENGTHS.length];
+					
+					for (int j = 0; j < this.texts[i].length; j++) {
+						this.texts[i][j] = summarizer.summarise(article.getDescriptionText(), TerracedNews.SUMMARY_LENGTHS[j]);
+					}
+					
+					try {
+						appendCheckpoint(getArticleKey(article), this.texts[i]);
+					} catch (IOException ioe) {
+						System.err.printf("[BatchRunner] Error checkpointing %s\n", getArticleKey(article));
+					}
+					
+					reportProgress("Summarized", this.articles.size());
+				}
+			} else {
+				int middle = (this.start + this.end) / 2;
+				
+				invokeAll(new SummarizeTask(this.articles, this.texts, this.start, middle),
+						new SummarizeTask(this.articles, this.texts, middle, this.end));
+			}
+		}//end void compute ()
+		
+		/**
+		 * Constructor, which initializes the range of articles.
+		 * 
+		 * @param articles The Vector<Atom> of all of the articles to summarize
+		 * @param texts The String[][] to store the summaries of each article in
+		 * @param start The int index of the first article to summarize
+		 * @param end The int index after the last article to summarize
+		 */
+		private SummarizeTask (Vector<Atom> articles, String[][] texts, int start, int end) {
+			this.articles = articles;
+			this.texts = texts;
+			this.start = start;
+			this.end = end;
+		}//end constructor
+	}//end class SummarizeTask
+	
+	/**
+	 * Runs the batch: parses the saved feed documents, drops repeated articles, summarizes the
+	 * articles not yet in the checkpoint and writes the pages.
+	 * 
+	 * @return true if the pages were written
+	 */
+	public boolean run () {
+		File[] files = this.archiveDir.listFiles();
+		LinkedHashMap<String, Atom> uniqueArticles = new LinkedHashMap<String, Atom>();
+		Vector<Atom> newArticles = new Vector<Atom>();
+		boolean retval = false;
+		
+		if ((files == null) || (files.length == 0)) {
+			//Writing no articles would empty index.html and delete every summary
+			System.err.printf("[BatchRunner] No saved feeds in %s, leaving the pages alone\n", this.archiveDir.getPath());
+			this.pool.shutdown();
+		} else {
+			Arrays.sort(files);
+			
+			try {
+				this.openCheckpoint();
+				
+				this.progress.set(0);
+				Vector<Atom> parsedArticles = this.pool.invoke(new ParseTask(files, 0, files.length));
+				
+				for (int i = 0; i < parsedArticles.size(); i++) {
+					String key = this.getArticleKey(parsedArticles.get(i));
+					
+					if (key != null) {
+						uniqueArticles.put(key, parsedArticles.get(i)); //later copies replace earlier ones
+					}
+				}
+				
+				System.err.printf("[BatchRunner] Read %d articles, %d after removing repeats\n", parsedArticles.size(), uniqueArticles.size());
+				
+				//Likewise if none of the documents could be parsed
+				if (uniqueArticles.isEmpty()) {
+					System.err.printf("[BatchRunner] No articles read from %s, leaving the pages alone\n", this.archiveDir.getPath());
+				} else {
+					Vector<Atom> articles = new Vector<Atom>(uniqueArticles.values());
+					
+					//Near-duplicates are found as the articles are added, and share the summaries of their first copy
+					this.news.addArticles(articles);
+					
+					for (int i = 0; i < articles.size(); i++) {
+						Atom article = articles.get(i);
+						
+						if ((this.news.getRepresentative(article) == article) && (this.checkpoint.containsKey(this.getArticleKey(article)) != true)) {
+							newArticles.add(article);
+						}
+					}
+					
+					String[][] texts = new String[newArticles.size()][];
+					
+					this.progress.set(0);
+					this.pool.invoke(new SummarizeTask(newArticles, texts, 0, newArticles.size()));
+					
+					for (int i = 0; i < newArticles.size(); i++) {
+						this.checkpoint.put(this.getArticleKey(newArticles.get(i)), texts[i]);
+					}
+					
+					for (int i = 0; i < articles.size(); i++) {
+						if (this.news.getRepresentative(articles.get(i)) == articles.get(i)) {
+							this.news.putSummaryTexts(articles.get(i), this.checkpoint.get(this.getArticleKey(articles.get(i))));
+						}
+					}
+					
+					System.err.printf("[BatchRunner] Writing the pages of %d articles\n", articles.size());
+					retval = this.news.writeFiles();
+				}
+			} catch (IOException ioe) {
+				System.err.printf("[BatchRunner] Error opening the checkpoint %s\n", this.checkpointFile.getPath());
+			} finally {
+				this.pool.shutdown();
+				
+				try {
+					if (this.checkpointOut != null) {
+						this.checkpointOut.close();
+					}
+				} catch (IOException ioe) {
+					System.err.println("[BatchRunner] Error closing the checkpoint");
+				}
+			}
+		}
+		
+		if (retval) {
+			System.err.println("[BatchRunner] Done");
+		}
+		
+		return retval;
+	}//end boolean run ()
+	
+	/**
+	 * Constructor, which does initialization
+	 * 
+	 * @param archiveDirPath The String of the path of the directory of saved feed documents
+	 * @param indexFileName The String of the main page file path
+	 * @param summaryFolderPath The String of the summary files directory path
+	 */
+	public BatchRunner (String archiveDirPath, String indexFileName, String summaryFolderPath) {
+		this.archiveDir = new File(archiveDirPath);
+		this.news = new TerracedNews(indexFileName, summaryFolderPath);
+		this.news.setArticlesPerCategory(Integer.MAX_VALUE); //the archive shows, and summarizes, every article
+		this.checkpointFile = new File(new File(indexFileName).getAbsoluteFile().getParentFile(), CHECKPOINT_NAME);
+		this.checkpoint = new Hashtable<String, String[]>();
+		this.pool = new ForkJoinPool();
+		this.progress = new AtomicInteger();
+	}//end constructor
+}//end class BatchRunner
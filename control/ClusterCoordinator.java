@@ -0,0 +1,370 @@
+package control;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ClusterCoordinator class lets several AtAGlance instances that share one output volume split
+ * the work of reading feeds between them. Each feed has a lease file in the shared cluster
+ * directory, and an instance owns a feed while it holds a FileChannel lock on that file. The owner
+ * downloads the feed into a cached copy next to the lease, which the other instances parse instead
+ * of fetching the feed themselves. One more lease, INDEX_LEASE, decides which instance writes
+ * index.html. The lease and cache files of a feed are named after a digest of its URL, so that no
+ * two feeds share a file and no feed shares the index lease.
+ * 
+ * Every instance also keeps a heartbeat file in the directory. The number of live heartbeats sets
+ * each instance's fair share of the feeds, so work is spread out as instances join and leave.
+ * Locks are released by the operating system when an instance dies, at which point the remaining
+ * instances pick up its feeds on their next cycle. An instance whose cycle has not completed within
+ * LEASE_TIMEOUT gives up its leases so that a hung instance fails over as well.
+ * 
+ * @see control.TerracedNews
+ */
+public class ClusterCoordinator {
+	private File clusterDir = null; //the shared directory holding the lease, heartbeat and cache files
+	private String nodeId = null; //the String identifying this instance
+	private File nodeFile = null; //this instance's heartbeat file
+	private HashMap<String, Lease> leases = null; //the leases held by this instance, keyed by lease name
+	private long lastCycleTime = 0; //the time the last cycle completed, in milliseconds
+	private ScheduledExecutorService heartbeat = null; //renews the heartbeat and leases
+	
+	private static final String INDEX_LEASE = "index"; //Name of the lease for writing index.html
+	private static final String FEED_PREFIX = "feed_"; //Start of the lease and cache file names of feeds, which keeps them apart from INDEX_LEASE
+	private static final int READABLE_LENGTH = 40; //Number of characters of a URL kept readable in its file names
+	private static final String LEASE_SUFFIX = ".lease";
+	private static final String NODE_SUFFIX = ".node";
+	private static final String CACHE_SUFFIX = ".xml";
+	private static final long HEARTBEAT_INTERVAL = 30000; //Time between heartbeats - 30 seconds
+	private static final long NODE_TIMEOUT = 90000; //Age after which a heartbeat file is ignored - 90 seconds
+	private static final long LEASE_TIMEOUT = 900000; //Time without a completed cycle before leases are given up - 15 minutes
+	
+	/**
+	 * Since feed URLs are not file name friendly, turns the given name into a file name made of the
+	 * start of the name, with all characters not in [A-Za-z0-9_] replaced by underscores, and the
+	 * hexadecimal MD5 of the whole name. Distinct names that read the same once sanitized, such as
+	 * URLs differing in a dash and an underscore, still get distinct file names.
+	 * 
+	 * @param name The String to turn into a file name
+	 * @return The sanitized file name
+	 */
+	private String generateFileName (String name) {
+		StringBuilder retval = new StringBuilder();
+		byte[] digest = null;
+		
+		try {
+			digest = MessageDigest.getInstance("MD5").digest(name.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException("MD5 digest not available"); //every Java platform has MD5
+		} catch (IOException ioe) {
+			throw new IllegalStateException("UTF-8 not available"); //nor does any lack UTF-8
+		}
+		
+		retval.append(name.substring(0, Math.min(name.length(), READABLE_LENGTH)).replaceAll("\\W", "_"));
+		retval.append('_');
+		
+		for (int i = 0; i < digest.length; i++) {
+			retval.append(String.format("%02x", digest[i] & 0xFF));
+		}
+		
+		return retval.toString();
+	}//end String generateFileName (String)
+	
+	/**
+	 * Returns the name of the lease of the given feed, which is also the base name of its lease and
+	 * cache files.
+	 * 
+	 * @param feedURLString The String of the RSS feed URL
+	 * @return The String name of the feed's lease
+	 */
+	private String getFeedLeaseName (String feedURLString) {
+		return FEED_PREFIX + this.generateFileName(feedURLString);
+	}//end String getFeedLeaseName (String)
+	
+	/**
+	 * Returns the file of the cached copy of the given feed.
+	 * 
+	 * @param feedURLString The String of the RSS feed URL
+	 * @return The File of the cached feed document
+	 */
+	public File getFeedCacheFile (String feedURLString) {
+		return new File(this.clusterDir, this.getFeedLeaseName(feedURLString) + CACHE_SUFFIX);
+	}//end File getFeedCacheFile (String)
+	
+	/**
+	 * Counts the instances whose heartbeat files have been touched within NODE_TIMEOUT, including
+	 * this one.
+	 * 
+	 * @return The int number of live instances
+	 */
+	private int countLiveNodes () {
+		File[] files = this.clusterDir.listFiles();
+		long now = System.currentTimeMillis();
+		int retval = 1;
+		
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].getName().endsWith(NODE_SUFFIX) && (files[i].equals(this.nodeFile) != true)
+						&& (now - files[i].lastModified() < NODE_TIMEOUT)) {
+					retval++;
+				}
+			}
+		}
+		
+		return retval;
+	}//end int countLiveNodes ()
+	
+	/**
+	 * Tries to take the named lease without waiting.
+	 * 
+	 * @param name The String name of the lease, which is also the base name of its file
+	 * @return true if this instance now holds the lease
+	 */
+	private synchronized boolean tryAcquire (String name) {
+		boolean retval = this.leases.containsKey(name);
+		
+		if (retval != true) {
+			try {
+				Lease lease = new Lease(new File(this.clusterDir, name + LEASE_SUFFIX));
+				
+				if (lease.lock != null) {
+					this.leases.put(name, lease);
+					lease.renew();
+					System.err.printf("[ClusterCoordinator] %s acquired the lease for %s\n", this.nodeId, name);
+					retval = true;
+				} else {
+					lease.close();
+				}
+			} catch (IOException ioe) {
+				System.err.printf("[ClusterCoordinator.tryAcquire] Error locking the lease for %s\n", name);
+			}
+		}
+		
+		return retval;
+	}//end boolean tryAcquire (String)
+	
+	/**
+	 * Gives up the named lease, if it is held.
+	 * 
+	 * @param name The String name of the lease
+	 */
+	private synchronized void release (String name) {
+		Lease lease = this.leases.remove(name);
+		
+		if (lease != null) {
+			lease.close();
+			System.err.printf("[ClusterCoordinator] %s released the lease for %s\n", this.nodeId, name);
+		}
+	}//end void release (String)
+	
+	/**
+	 * Balances feed ownership at the start of a cycle: feeds are claimed while this instance holds
+	 * fewer than its fair share, and released while it holds more. Also tries to take the lease for
+	 * writing index.html.
+	 * 
+	 * @param feedURLStrings The String[] of all of the RSS feed URLs
+	 */
+	public synchronized void balance (String[] feedURLStrings) {
+		int liveNodes = this.countLiveNodes();
+		int fairShare = (feedURLStrings.length + liveNodes - 1) / liveNodes;
+		Vector<String> ownedFeeds = new Vector<String>();
+		
+		for (int i = 0; i < feedURLStrings.length; i++) {
+			if (this.ownsFeed(feedURLStrings[i])) {
+				ownedFeeds.add(feedURLStrings[i]);
+			}
+		}
+		
+		//Release the most recently listed feeds first, so that ownership is stable
+		while (ownedFeeds.size() > fairShare) {
+			this.release(this.getFeedLeaseName(ownedFeeds.remove(ownedFeeds.size() - 1)));
+		}
+		
+		for (int i = 0; (i < feedURLStrings.length) && (ownedFeeds.size() < fairShare); i++) {
+			if ((this.ownsFeed(feedURLStrings[i]) != true) && this.tryAcquire(this.getFeedLeaseName(feedURLStrings[i]))) {
+				ownedFeeds.add(feedURLStrings[i]);
+			}
+		}
+		
+		this.tryAcquire(INDEX_LEASE);
+	}//end void balance (String[])
+	
+	/**
+	 * Returns whether this instance owns the given feed.
+	 * 
+	 * @param feedURLString The String of the RSS feed URL
+	 * @return true if this instance should download the feed
+	 */
+	public synchronized boolean ownsFeed (String feedURLString) {
+		return this.leases.containsKey(this.getFeedLeaseName(feedURLString));
+	}//end boolean ownsFeed (String)
+	
+	/**
+	 * Returns whether this instance should write index.html.
+	 * 
+	 * @return true if this instance holds the index lease
+	 */
+	public synchronized boolean ownsIndex () {
+		return this.leases.containsKey(INDEX_LEASE);
+	}//end boolean ownsIndex ()
+	
+	/**
+	 * Records that a cycle has completed, which keeps the leases of this instance alive.
+	 */
+	public synchronized void cycleCompleted () {
+		this.lastCycleTime = System.currentTimeMillis();
+	}//end void cycleCompleted ()
+	
+	/**
+	 * Touches the heartbeat file and renews the leases, or gives the leases up if no cycle has
+	 * completed within LEASE_TIMEOUT.
+	 */
+	private synchronized void beat () {
+		long now = System.currentTimeMillis();
+		
+		try {
+			if (this.nodeFile.exists() != true) {
+				this.nodeFile.createNewFile();
+			}
+			
+			this.nodeFile.setLastModified(now);
+		} catch (IOException ioe) {
+			System.err.printf("[ClusterCoordinator.beat] Error touching %s\n", this.nodeFile.getPath());
+		}
+		
+		if (now - this.lastCycleTime > LEASE_TIMEOUT) {
+			if (this.leases.isEmpty() != true) {
+				System.err.printf("[ClusterCoordinator] %s has not completed a cycle recently, giving up its leases\n", this.nodeId);
+			}
+			
+			Vector<String> names = new Vector<String>(this.leases.keySet());
+			
+			for (int i = 0; i < names.size(); i++) {
+				this.release(names.get(i));
+			}
+		} else {
+			for (Lease lease : this.leases.values()) {
+				try {
+					lease.renew();
+				} catch (IOException ioe) {
+					System.err.println("[ClusterCoordinator.beat] Error renewing a lease");
+				}
+			}
+		}
+	}//end void beat ()
+	
+	/**
+	 * Stops the heartbeat, gives up all leases and removes the heartbeat file.
+	 */
+	public synchronized void shutdown () {
+		this.heartbeat.shutdownNow();
+		
+		Vector<String> names = new Vector<String>(this.leases.keySet());
+		
+		for (int i = 0; i < names.size(); i++) {
+			this.release(names.get(i));
+		}
+		
+		this.nodeFile.delete();
+	}//end void shutdown ()
+	
+	/**
+	 * A lease file locked by this instance. The file holds the id of the owning instance and the
+	 * time of its last renewal, for the benefit of anyone inspecting the cluster directory.
+	 */
+	private class Lease {
+		private RandomAccessFile file = null; //the open lease file
+		private FileChannel channel = null; //the channel the lock is held through
+		private FileLock lock = null; //the lock, or null if another instance holds it
+		
+		/**
+		 * Rewrites the owner and renewal time in the lease file.
+		 * 
+		 * @throws IOException
+		 */
+		private void renew () throws IOException {
+			byte[] content = String.format("%s %d\n", nodeId, System.currentTimeMillis()).getBytes("UTF-8");
+			
+			this.channel.truncate(0);
+			this.channel.write(ByteBuffer.wrap(content), 0);
+		}//end void renew ()
+		
+		/**
+		 * Releases the lock and closes the file.
+		 */
+		private void close () {
+			try {
+				if (this.lock != null) {
+					this.lock.release();
+				}
+				
+				this.file.close();
+			} catch (IOException ioe) {
+				System.err.println("[ClusterCoordinator.Lease] Error closing a lease file");
+			}
+		}//end void close ()
+		
+		/**
+		 * Constructor, which opens the lease file and tries to lock it without waiting. The file is
+		 * closed again if it can not be locked.
+		 * 
+		 * @param leaseFile The File of the lease
+		 * @throws IOException
+		 */
+		private Lease (File leaseFile) throws IOException {
+			this.file = new RandomAccessFile(leaseFile, "rw");
+			this.channel = this.file.getChannel();
+			
+			try {
+				this.lock = this.channel.tryLock();
+			} catch (OverlappingFileLockException ofle) {
+				//Already locked from within this process, which counts as held by another
+				this.file.close();
+				this.lock = null;
+			} catch (IOException ioe) {
+				this.file.close();
+				throw ioe;
+			}
+		}//end constructor
+	}//end class Lease
+	
+	/**
+	 * Constructor, which joins the cluster: creates the shared directory if needed and starts the
+	 * heartbeat.
+	 * 
+	 * @param clusterDirPath The String of the shared cluster directory path
+	 * @throws IOException if the directory can not be created
+	 */
+	public ClusterCoordinator (String clusterDirPath) throws IOException {
+		this.clusterDir = new File(clusterDirPath);
+		
+		if ((this.clusterDir.exists() != true) && (this.clusterDir.mkdirs() != true)) {
+			throw new IOException(String.format("Could not create %s", clusterDirPath));
+		}
+		
+		this.nodeId = ManagementFactory.getRuntimeMXBean().getName(); //pid@host
+		this.nodeFile = new File(this.clusterDir, this.generateFileName(this.nodeId) + NODE_SUFFIX);
+		this.leases = new HashMap<String, Lease>();
+		this.lastCycleTime = System.currentTimeMillis();
+		this.heartbeat = Executors.newSingleThreadScheduledExecutor();
+		
+		this.beat();
+		this.heartbeat.scheduleAtFixedRate(new Runnable() {
+			public void run () {
+				ClusterCoordinator.this.beat();
+			}
+		}, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+	}//end constructor
+}//end class ClusterCoordinator
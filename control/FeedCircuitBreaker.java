@@ -0,0 +1,60 @@
+package control;
+
+/**
+ * The FeedCircuitBreaker class tracks the health of a single RSS feed. After FAILURE_THRESHOLD
+ * failed reads in a row the breaker opens, and the feed is skipped until COOL_DOWN has passed.
+ * The next read after the cool-down is a trial: if it succeeds the breaker closes again, and if it
+ * fails the feed is skipped for another cool-down period.
+ * 
+ * @see control.TerracedNews
+ */
+public class FeedCircuitBreaker {
+	private String feedURLString = null; //the String of the URL of the feed being tracked
+	private int consecutiveFailures = 0; //the number of failed reads since the last success
+	private long openUntil = 0; //the time until which the feed is skipped, in milliseconds
+	
+	private static final int FAILURE_THRESHOLD = 3; //Failed reads in a row before the feed is skipped
+	private static final long COOL_DOWN = 900000; //Time a failing feed is skipped for - 15 minutes
+	
+	/**
+	 * Returns whether the feed should be read at the given time.
+	 * 
+	 * @param now The long current time in milliseconds
+	 * @return true if the feed should be read, false if it is being skipped
+	 */
+	public boolean allowRead (long now) {
+		return (now >= this.openUntil);
+	}//end boolean allowRead (long)
+	
+	/**
+	 * Records a successful read of the feed, closing the breaker.
+	 */
+	public void recordSuccess () {
+		this.consecutiveFailures = 0;
+		this.openUntil = 0;
+	}//end void recordSuccess ()
+	
+	/**
+	 * Records a failed read of the feed, opening the breaker if the feed has failed too often.
+	 * 
+	 * @param now The long current time in milliseconds
+	 */
+	public void recordFailure (long now) {
+		this.consecutiveFailures++;
+		
+		if (this.consecutiveFailures >= FAILURE_THRESHOLD) {
+			this.openUntil = now + COOL_DOWN;
+			System.err.printf("[FeedCircuitBreaker] %s failed %d times in a row, skipping it for %d seconds\n",
+					this.feedURLString, this.consecutiveFailures, COOL_DOWN / 1000);
+		}
+	}//end void recordFailure (long)
+	
+	/**
+	 * Constructor, which starts the breaker closed.
+	 * 
+	 * @param feedURLString The String of the URL of the feed to track
+	 */
+	public FeedCircuitBreaker (String feedURLString) {
+		this.feedURLString = feedURLString;
+	}//end constructor
+}//end class FeedCircuitBreaker
@@ -0,0 +1,99 @@
+package control;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+
+import rss_processing.Atom;
+import rss_processing.RSSReader;
+import rss_processing.TextArena;
+
+/**
+ * The FeedTask class reads a single RSS feed, so that each feed of a TerracedNews cycle can be read
+ * on its own worker thread and abandoned if it misses the cycle's deadline. In cluster mode the
+ * task may also keep a cached copy of the feed document for the other instances to read.
+ * 
+ * @see rss_processing.RSSReader
+ */
+public class FeedTask implements Callable<Vector<Atom>> {
+	private String feedURLString = null; //the String of the RSS feed URL
+	private int timeout = 0; //the connect and read timeout for the feed, in milliseconds
+	private File cacheFile = null; //the File to cache the feed document in, or null
+	private TextArena.Generation textGeneration = null; //the arena generation to store article text in, or null
+	
+	/**
+	 * Implementing the call method, which downloads and parses the feed.
+	 * 
+	 * @return The Vector<Atom> of articles read from the feed
+	 * @throws Exception if the feed could not be read or parsed
+	 */
+	public Vector<Atom> call () throws Exception {
+		Vector<Atom> retval = null;
+		
+		if (this.cacheFile == null) {
+			retval = this.read(this.feedURLString);
+		} else {
+			//Only replace the cached copy once the new document has parsed
+			File tempFile = File.createTempFile(this.cacheFile.getName(), ".tmp", this.cacheFile.getParentFile());
+			
+			try {
+				RSSReader.saveFeed(this.feedURLString, tempFile, this.timeout);
+				retval = this.read(tempFile.toURI().toURL().toString());
+				
+				if (tempFile.renameTo(this.cacheFile) != true) {
+					throw new IOException(String.format("Could not replace %s", this.cacheFile.getPath()));
+				}
+			} finally {
+				tempFile.delete();
+			}
+		}
+		
+		return retval;
+	}//end Vector<Atom> call ()
+	
+	/**
+	 * Reads and parses the feed document at the given URL.
+	 * 
+	 * @param rssURLString The String of the URL of the feed document
+	 * @return The Vector<Atom> of articles read from the document
+	 * @throws Exception if the document could not be read or parsed
+	 */
+	private Vector<Atom> read (String rssURLString) throws Exception {
+		RSSReader reader = new RSSReader(rssURLString, this.timeout);
+		
+		if (reader.hasFeed() != true) {
+			throw new IOException(String.format("No feed document read from %s", this.feedURLString));
+		}
+		
+		reader.setRssAtoms(this.textGeneration);
+		
+		return reader.getRssAtoms();
+	}//end Vector<Atom> read (String)
+	
+	/**
+	 * Constructor, which does initialization
+	 * 
+	 * @param feedURLString The String of the RSS feed URL
+	 * @param timeout The int connect and read timeout for the feed, in milliseconds
+	 */
+	public FeedTask (String feedURLString, int timeout) {
+		this(feedURLString, timeout, null, null);
+	}//end constructor (String, int)
+	
+	/**
+	 * Constructor, which does initialization for a task that may also cache the feed document and
+	 * keep the article text in a TextArena.
+	 * 
+	 * @param feedURLString The String of the RSS feed URL
+	 * @param timeout The int connect and read timeout for the feed, in milliseconds
+	 * @param cacheFile The File to cache the feed document in, or null
+	 * @param textGeneration The TextArena.Generation to store the article text in, or null to keep it on the heap
+	 */
+	public FeedTask (String feedURLString, int timeout, File cacheFile, TextArena.Generation textGeneration) {
+		this.feedURLString = feedURLString;
+		this.timeout = timeout;
+		this.cacheFile = cacheFile;
+		this.textGeneration = textGeneration;
+	}//end constructor (String, int, File, TextArena.Generation)
+}//end class FeedTask
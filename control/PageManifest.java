@@ -0,0 +1,291 @@
+package control;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+/**
+ * The PageManifest class keeps a content hash of every page written, so that pages whose bytes
+ * have not changed since the last cycle are left alone. Leaving them alone keeps their modification
+ * times, and with them browser and proxy caches, valid, and most cycles end up writing next to
+ * nothing to disk.
+ * 
+ * The hashes are persisted in pages.manifest, one page per line:
+ * 
+ *     "etag" length modified path
+ * 
+ * where etag is the hexadecimal MD5 of the page, quoted so that it can be served as is as a strong
+ * ETag, length and modified are the size and modification time of the page file when it was
+ * hashed, and path is the path the page was written to. A page file whose size or modification
+ * time no longer matches its line was changed by something else, and is hashed again before it is
+ * compared.
+ * 
+ * @see control.TerracedNews
+ */
+public class PageManifest {
+	private File manifestFile = null; //the File the manifest is persisted in
+	private HashMap<String, Entry> entries = null; //the entry of each page, keyed by page path
+	private boolean changed = false; //true if the entries differ from the manifest file
+	
+	private static final String MANIFEST_NAME = "pages.manifest";
+	private static final String TEMP_SUFFIX = ".tmp"; //Suffix of pages that are still being written
+	private static final String CHARSET = "UTF-8"; //Encoding of the pages
+	
+	/**
+	 * Returns the strong ETag of the given bytes: their hexadecimal MD5, in double quotes.
+	 * 
+	 * @param bytes The byte[] of the page
+	 * @return The String of the ETag
+	 * @throws IOException if the digest is not available
+	 */
+	private String computeETag (byte[] bytes) throws IOException {
+		StringBuilder retval = new StringBuilder("\"");
+		byte[] digest = null;
+		
+		try {
+			digest = MessageDigest.getInstance("MD5").digest(bytes);
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IOException("MD5 digest not available");
+		}
+		
+		for (int i = 0; i < digest.length; i++) {
+			retval.append(String.format("%02x", digest[i] & 0xFF));
+		}
+		
+		retval.append('"');
+		
+		return retval.toString();
+	}//end String computeETag (byte[])
+	
+	/**
+	 * Reads the whole of the given file.
+	 * 
+	 * @param file The File to read
+	 * @return The byte[] of the file content
+	 * @throws IOException
+	 */
+	private byte[] readFile (File file) throws IOException {
+		byte[] retval = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		int read = 0;
+		
+		try {
+			while (read < retval.length) {
+				int count = in.read(retval, read, retval.length - read);
+				
+				if (count < 0) {
+					throw new IOException(String.format("%s changed while being read", file.getPath()));
+				}
+				
+				read += count;
+			}
+		} finally {
+			in.close();
+		}
+		
+		return retval;
+	}//end byte[] readFile (File)
+	
+	/**
+	 * Returns the entry of the given page file, hashing the file again if it is not in the manifest
+	 * or has changed since it was hashed.
+	 * 
+	 * @param page The File of the page
+	 * @return The Entry of the page, or null if the file does not exist
+	 * @throws IOException if the file could not be read
+	 */
+	private Entry getCurrentEntry (File page) throws IOException {
+		Entry retval = this.entries.get(page.getPath());
+		
+		if (page.exists() != true) {
+			retval = null;
+		} else if ((retval == null) || (retval.length != page.length()) || (retval.modified != page.lastModified())) {
+			//Written by an earlier run, or by another instance of a cluster
+			retval = new Entry(this.computeETag(this.readFile(page)), page.length(), page.lastModified());
+			this.entries.put(page.getPath(), retval);
+			this.changed = true;
+		}
+		
+		return retval;
+	}//end Entry getCurrentEntry (File)
+	
+	/**
+	 * Writes the given page, unless the page file already holds exactly the same bytes. The page is
+	 * written to a temporary file which replaces the page file once it is complete.
+	 * 
+	 * @param page The File of the page
+	 * @param content The String of the page content
+	 * @return true if the page file was written, false if it was already up to date
+	 * @throws IOException if the page could not be written
+	 */
+	public synchronized boolean write (File page, String content) throws IOException {
+		byte[] bytes = content.getBytes(CHARSET);
+		String etag = this.computeETag(bytes);
+		Entry current = this.getCurrentEntry(page);
+		boolean retval = false;
+		
+		if ((current == null) || (current.etag.equals(etag) != true)) {
+			//Another instance of a cluster may be writing the same page, so the name is unique
+			File tempFile = File.createTempFile(page.getName(), TEMP_SUFFIX, page.getAbsoluteFile().getParentFile());
+			
+			try {
+				OutputStream out = new FileOutputStream(tempFile);
+				out.write(bytes);
+				out.flush();
+				out.close();
+				
+				TerracedNews.replaceFile(tempFile, page);
+			} finally {
+				tempFile.delete(); //does nothing once the file has been moved into place
+			}
+			
+			this.entries.put(page.getPath(), new Entry(etag, page.length(), page.lastModified()));
+			this.changed = true;
+			retval = true;
+		}
+		
+		return retval;
+	}//end boolean write (File, String)
+	
+	/**
+	 * Returns the strong ETag of the given page, for front-ends serving it.
+	 * 
+	 * @param page The File of the page
+	 * @return The String of the quoted ETag, or null if the page does not exist or can not be read
+	 */
+	public synchronized String getETag (File page) {
+		String retval = null;
+		
+		try {
+			Entry entry = this.getCurrentEntry(page);
+			
+			if (entry != null) {
+				retval = entry.etag;
+			}
+		} catch (IOException ioe) {
+			System.err.printf("[PageManifest.getETag] Error reading %s\n", page.getPath());
+		}
+		
+		return retval;
+	}//end String getETag (File)
+	
+	/**
+	 * Drops the entries of all pages but the given ones, such as pages that have been deleted.
+	 * 
+	 * @param pages The Collection<File> of the pages to keep
+	 */
+	public synchronized void retain (Collection<File> pages) {
+		HashSet<String> paths = new HashSet<String>();
+		
+		for (File page : pages) {
+			paths.add(page.getPath());
+		}
+		
+		if (this.entries.keySet().retainAll(paths)) {
+			this.changed = true;
+		}
+	}//end void retain (Collection<File>)
+	
+	/**
+	 * Persists the manifest, if it has changed since it was last saved or loaded.
+	 * 
+	 * @throws IOException if the manifest could not be written
+	 */
+	public synchronized void save () throws IOException {
+		if (this.changed) {
+			File tempFile = new File(this.manifestFile.getPath() + TEMP_SUFFIX);
+			Vector<String> paths = new Vector<String>(this.entries.keySet());
+			
+			try {
+				FileWriter manifestWriter = new FileWriter(tempFile);
+				
+				for (int i = 0; i < paths.size(); i++) {
+					Entry entry = this.entries.get(paths.get(i));
+					manifestWriter.write(String.format("%s %d %d %s\n", entry.etag, entry.length, entry.modified, paths.get(i)));
+				}
+				
+				manifestWriter.flush();
+				manifestWriter.close();
+				
+				TerracedNews.replaceFile(tempFile, this.manifestFile);
+			} finally {
+				tempFile.delete();
+			}
+			
+			this.changed = false;
+		}
+	}//end void save ()
+	
+	/**
+	 * Loads the entries persisted by an earlier run. A manifest that can not be read is ignored, in
+	 * which case the pages are hashed again as they are written.
+	 */
+	private void load () {
+		if (this.manifestFile.exists()) {
+			try {
+				BufferedReader manifestReader = new BufferedReader(new FileReader(this.manifestFile));
+				String line = null;
+				
+				try {
+					while ((line = manifestReader.readLine()) != null) {
+						String[] fields = line.split(" ", 4);
+						
+						if (fields.length == 4) {
+							this.entries.put(fields[3], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+						}
+					}
+				} finally {
+					manifestReader.close();
+				}
+			} catch (Exception e) {
+				System.err.printf("[PageManifest] Could not read %s, hashing the pages again\n", this.manifestFile.getPath());
+				this.entries.clear();
+			}
+		}
+	}//end void load ()
+	
+	/**
+	 * The hash of one page, with the size and modification time of the page file it was taken from.
+	 */
+	private static class Entry {
+		private String etag = null; //the quoted hexadecimal MD5 of the page
+		private long length = 0; //the size of the page file, in bytes
+		private long modified = 0; //the modification time of the page file, in milliseconds
+		
+		/**
+		 * Constructor, which initializes the entry fields.
+		 * 
+		 * @param etag The String of the quoted hexadecimal MD5 of the page
+		 * @param length The long size of the page file
+		 * @param modified The long modification time of the page file
+		 */
+		private Entry (String etag, long length, long modified) {
+			this.etag = etag;
+			this.length = length;
+			this.modified = modified;
+		}//end constructor
+	}//end class Entry
+	
+	/**
+	 * Constructor, which loads the manifest persisted by an earlier run, if any.
+	 * 
+	 * @param directory The File of the directory to keep the manifest in
+	 */
+	public PageManifest (File directory) {
+		this.manifestFile = new File(directory, MANIFEST_NAME);
+		this.entries = new HashMap<String, Entry>();
+		this.load();
+	}//end constructor
+}//end class PageManifest
@@ -0,0 +1,356 @@
+package control;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+import rss_processing.Atom;
+
+/**
+ * The SnapshotWriter class publishes a machine-readable copy of the AtAGlance main page for
+ * clients that would otherwise have to scrape index.html. Each snapshot holds the categories, the
+ * metadata of the articles shown under each and the text of their three summaries, in two formats:
+ * 
+ *     snapshot.json    - a JSON document, written as a stream
+ *     snapshot.bin     - a compact binary document (see writeBinary for the layout)
+ *     snapshot.version - the version number of the current snapshot, as text
+ * 
+ * The version number only goes up when the content of the snapshot changes, so a client can poll
+ * the few bytes of snapshot.version and only fetch a snapshot when the number has moved on. The
+ * version file is replaced last, so a client that sees a new version always finds the matching
+ * snapshot.
+ * 
+ * @see control.TerracedNews
+ */
+public class SnapshotWriter {
+	private File jsonFile = null; //the File of the JSON snapshot
+	private File binaryFile = null; //the File of the binary snapshot
+	private File versionFile = null; //the File holding the current version number and content digest
+	private long version = 0; //the version number of the current snapshot
+	private byte[] digest = null; //the digest of the content of the current snapshot
+	
+	private static final String JSON_NAME = "snapshot.json";
+	private static final String BINARY_NAME = "snapshot.bin";
+	private static final String VERSION_NAME = "snapshot.version";
+	private static final String TEMP_SUFFIX = ".tmp"; //Suffix of snapshots that are still being written
+	private static final int BINARY_MAGIC = 0x41414753; //"AAGS", the first four bytes of a binary snapshot
+	private static final int BINARY_FORMAT = 1; //Layout version of the binary snapshot
+	private static final String[] SUMMARY_NAMES = {"short", "medium", "long"};
+	
+	/**
+	 * Writes the given String as an int byte length followed by its UTF-8 bytes.
+	 * 
+	 * @param out The DataOutputStream to write to
+	 * @param text The String to write
+	 * @throws IOException
+	 */
+	private void writeString (DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes("UTF-8");
+		
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}//end void writeString (DataOutputStream, String)
+	
+	/**
+	 * Writes the categories and articles of a snapshot in the binary layout. All integers are big
+	 * endian and every string is length-prefixed:
+	 * 
+	 *     int categoryCount
+	 *     for each category:  string name, int articleCount
+	 *         for each article:  string title, string tagline, string url, string pubDate
+	 *             for short, medium and long:  string summaryFile, string summaryText
+	 * 
+	 * @param out The DataOutputStream to write to
+	 * @param categories The Vector<String> of category names, in page order
+	 * @param articles The HashMap of category names to the Articles shown under them
+	 * @throws IOException
+	 */
+	private void writeBinaryBody (DataOutputStream out, Vector<String> categories, HashMap<String, Vector<Article>> articles) throws IOException {
+		out.writeInt(categories.size());
+		
+		for (int catIdx = 0; catIdx < categories.size(); catIdx++) {
+			Vector<Article> categoryArticles = articles.get(categories.get(catIdx));
+			
+			this.writeString(out, categories.get(catIdx));
+			out.writeInt(categoryArticles.size());
+			
+			for (int artIdx = 0; artIdx < categoryArticles.size(); artIdx++) {
+				Article article = categoryArticles.get(artIdx);
+				
+				this.writeString(out, article.atom.getTitle());
+				this.writeString(out, article.atom.getTagline());
+				this.writeString(out, article.atom.getGuid());
+				this.writeString(out, article.atom.getPubDate());
+				
+				for (int i = 0; i < SUMMARY_NAMES.length; i++) {
+					this.writeString(out, article.summaryFiles[i]);
+					this.writeString(out, article.summaryTexts[i]);
+				}
+			}
+		}
+	}//end void writeBinaryBody (DataOutputStream, Vector<String>, HashMap<String, Vector<Article>>)
+	
+	/**
+	 * Writes the binary snapshot: the int BINARY_MAGIC, the int BINARY_FORMAT, the long version,
+	 * the long generation time in milliseconds and then the body.
+	 * 
+	 * @param file The File to write to
+	 * @param body The byte[] of the body, as written by writeBinaryBody
+	 * @param time The long generation time in milliseconds
+	 * @throws IOException
+	 */
+	private void writeBinary (File file, byte[] body, long time) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		
+		out.writeInt(BINARY_MAGIC);
+		out.writeInt(BINARY_FORMAT);
+		out.writeLong(this.version);
+		out.writeLong(time);
+		out.write(body);
+		
+		out.flush();
+		out.close();
+	}//end void writeBinary (File, byte[], long)
+	
+	/**
+	 * Writes the given String as a JSON string literal.
+	 * 
+	 * @param out The Writer to write to
+	 * @param text The String to write
+	 * @throws IOException
+	 */
+	private void writeJsonString (Writer out, String text) throws IOException {
+		out.write('"');
+		
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			
+			switch (c) {
+			case '"': out.write("\\\""); break;
+			case '\\': out.write("\\\\"); break;
+			case '\n': out.write("\\n"); break;
+			case '\r': out.write("\\r"); break;
+			case '\t': out.write("\\t"); break;
+			default:
+				if (c < 0x20) {
+					out.write(String.format("\\u%04x", (int) c));
+				} else {
+					out.write(c);
+				}
+			}
+		}
+		
+		out.write('"');
+	}//end void writeJsonString (Writer, String)
+	
+	/**
+	 * Streams the JSON snapshot to the given file, one article at a time.
+	 * 
+	 * @param file The File to write to
+	 * @param categories The Vector<String> of category names, in page order
+	 * @param articles The HashMap of category names to the Articles shown under them
+	 * @param time The long generation time in milliseconds
+	 * @throws IOException
+	 */
+	private void writeJson (File file, Vector<String> categories, HashMap<String, Vector<Article>> articles, long time) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		
+		out.write(String.format("{\"version\":%d,\"generated\":%d,\"categories\":[", this.version, time));
+		
+		for (int catIdx = 0; catIdx < categories.size(); catIdx++) {
+			Vector<Article> categoryArticles = articles.get(categories.get(catIdx));
+			
+			out.write((catIdx > 0) ? ",\n{\"name\":" : "\n{\"name\":");
+			this.writeJsonString(out, categories.get(catIdx));
+			out.write(",\"articles\":[");
+			
+			for (int artIdx = 0; artIdx < categoryArticles.size(); artIdx++) {
+				Article article = categoryArticles.get(artIdx);
+				
+				out.write((artIdx > 0) ? ",{\"title\":" : "{\"title\":");
+				this.writeJsonString(out, article.atom.getTitle());
+				out.write(",\"tagline\":");
+				this.writeJsonString(out, article.atom.getTagline());
+				out.write(",\"url\":");
+				this.writeJsonString(out, article.atom.getGuid());
+				out.write(",\"pubDate\":");
+				this.writeJsonString(out, article.atom.getPubDate());
+				out.write(",\"summaries\":{");
+				
+				for (int i = 0; i < SUMMARY_NAMES.length; i++) {
+					out.write(String.format((i > 0) ? ",\"%s\":{\"file\":" : "\"%s\":{\"file\":", SUMMARY_NAMES[i]));
+					this.writeJsonString(out, article.summaryFiles[i]);
+					out.write(",\"text\":");
+					this.writeJsonString(out, article.summaryTexts[i]);
+					out.write('}');
+				}
+				
+				out.write("}}");
+			}
+			
+			out.write("]}");
+		}
+		
+		out.write("\n]}\n");
+		
+		out.flush();
+		out.close();
+	}//end void writeJson (File, Vector<String>, HashMap<String, Vector<Article>>, long)
+	
+	/**
+	 * Converts the given bytes to a hexadecimal String.
+	 * 
+	 * @param bytes The byte[] to convert
+	 * @return The String of hexadecimal digits
+	 */
+	private String toHex (byte[] bytes) {
+		StringBuilder retval = new StringBuilder();
+		
+		for (int i = 0; i < bytes.length; i++) {
+			retval.append(String.format("%02x", bytes[i] & 0xFF));
+		}
+		
+		return retval.toString();
+	}//end String toHex (byte[])
+	
+	/**
+	 * Publishes a snapshot of the given categories and articles. If the content is the same as the
+	 * current snapshot, nothing is written.
+	 * 
+	 * @param categories The Vector<String> of category names, in page order
+	 * @param articles The HashMap of category names to the Articles shown under them
+	 * @return true if a new snapshot version was published
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public boolean write (Vector<String> categories, HashMap<String, Vector<Article>> articles) throws IOException {
+		boolean retval = false;
+		ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bodyBytes);
+		byte[] newDigest = null;
+		
+		//Another instance of a cluster may have published since this one last did
+		this.readVersion();
+		this.writeBinaryBody(body, categories, articles);
+		body.flush();
+		
+		try {
+			newDigest = MessageDigest.getInstance("MD5").digest(bodyBytes.toByteArray());
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IOException("MD5 digest not available");
+		}
+		
+		if ((Arrays.equals(newDigest, this.digest) != true) || (this.jsonFile.exists() != true) || (this.binaryFile.exists() != true)) {
+			long time = System.currentTimeMillis();
+			File tempJsonFile = new File(this.jsonFile.getPath() + TEMP_SUFFIX);
+			File tempBinaryFile = new File(this.binaryFile.getPath() + TEMP_SUFFIX);
+			File tempVersionFile = new File(this.versionFile.getPath() + TEMP_SUFFIX);
+			
+			this.version++;
+			
+			try {
+				this.writeBinary(tempBinaryFile, bodyBytes.toByteArray(), time);
+				this.writeJson(tempJsonFile, categories, articles, time);
+				
+				FileWriter versionWriter = new FileWriter(tempVersionFile);
+				versionWriter.write(String.format("%d %s\n", this.version, this.toHex(newDigest)));
+				versionWriter.flush();
+				versionWriter.close();
+				
+				TerracedNews.replaceFile(tempBinaryFile, this.binaryFile);
+				TerracedNews.replaceFile(tempJsonFile, this.jsonFile);
+				TerracedNews.replaceFile(tempVersionFile, this.versionFile);
+			} catch (IOException ioe) {
+				this.version--;
+				throw ioe;
+			} finally {
+				tempJsonFile.delete();
+				tempBinaryFile.delete();
+				tempVersionFile.delete();
+			}
+			
+			this.digest = newDigest;
+			retval = true;
+		}
+		
+		return retval;
+	}//end boolean write (Vector<String>, HashMap<String, Vector<Article>>)
+	
+	/**
+	 * Returns the version number of the current snapshot.
+	 * 
+	 * @return The long version number, 0 if no snapshot has been published
+	 */
+	public long getVersion () {
+		return this.version;
+	}//end long getVersion ()
+	
+	/**
+	 * Reads the version number and content digest of the current snapshot, which may have been
+	 * published by an earlier run, so that versions keep going up across restarts.
+	 */
+	private void readVersion () {
+		if (this.versionFile.exists()) {
+			try {
+				BufferedReader versionReader = new BufferedReader(new FileReader(this.versionFile));
+				String[] fields = versionReader.readLine().trim().split(" ");
+				versionReader.close();
+				
+				this.version = Long.parseLong(fields[0]);
+				this.digest = new byte[fields[1].length() / 2];
+				
+				for (int i = 0; i < this.digest.length; i++) {
+					this.digest[i] = (byte) Integer.parseInt(fields[1].substring(i * 2, i * 2 + 2), 16);
+				}
+			} catch (Exception e) {
+				System.err.printf("[SnapshotWriter] Could not read %s, starting a new version sequence\n", this.versionFile.getPath());
+				this.digest = null;
+			}
+		}
+	}//end void readVersion ()
+	
+	/**
+	 * An article shown on the main page, with its summaries.
+	 */
+	public static class Article {
+		private Atom atom = null; //the article
+		private String[] summaryFiles = null; //the paths of the short, medium and long summary files
+		private String[] summaryTexts = null; //the text of the short, medium and long summaries
+		
+		/**
+		 * Constructor, which initializes the article fields.
+		 * 
+		 * @param atom The Atom of the article
+		 * @param summaryFiles The String[] of the short, medium and long summary file paths
+		 * @param summaryTexts The String[] of the short, medium and long summary text
+		 */
+		public Article (Atom atom, String[] summaryFiles, String[] summaryTexts) {
+			this.atom = atom;
+			this.summaryFiles = summaryFiles;
+			this.summaryTexts = summaryTexts;
+		}//end constructor
+	}//end class Article
+	
+	/**
+	 * Constructor, which does initialization
+	 * 
+	 * @param directory The File of the directory to publish the snapshots in
+	 */
+	public SnapshotWriter (File directory) {
+		this.jsonFile = new File(directory, JSON_NAME);
+		this.binaryFile = new File(directory, BINARY_NAME);
+		this.versionFile = new File(directory, VERSION_NAME);
+	}//end constructor
+}//end class SnapshotWriter
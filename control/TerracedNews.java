@@ -1,45 +1,98 @@
 package control;
 
+import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.sf.classifier4J.summariser.SimpleSummariser;
 
-import com.sun.cnpi.rss.parser.RssParserException;
-
 import rss_processing.Atom;
-import rss_processing.RSSReader;
+import rss_processing.TextArena;
+import search.ArticleIndex;
+import search.NearDuplicateDetector;
+import search.SearchServer;
 
 /**
  * The TerracedNews class is the entry point for the AtAGlance web service. It runs as a separate
- * thread, downloading the target RSS feed at a set time interval (which is accomplished using the
- * RSSReader class). Three summaries of each article are created using Classifier4J: a short, medium,
- * and long summary. Once these summaries have been created, an HTML file is generated for display
- * in the user's web browser. Also at this time, the AtAGlance index file is generated, which
- * includes links to all of the generated summaries.
+ * thread, downloading the target RSS feeds at a set time interval (which is accomplished using the
+ * RSSReader class). Each feed is read on its own worker thread with a deadline, and a feed that
+ * keeps failing is skipped for a while by its FeedCircuitBreaker; the articles last read from a
+ * feed are used until it recovers. Three summaries of each article are created using
+ * Classifier4J: a short, medium, and long summary. Once these summaries have been created, an HTML
+ * file is generated for display in the user's web browser. Also at this time, the AtAGlance index
+ * file is generated, which includes links to all of the generated summaries. Page generation also
+ * has a deadline, and the pages are only replaced once they have been written completely, so a
+ * slow or failed cycle leaves the previous cycle's pages in place.
+ * 
+ * Near-duplicate articles, such as a syndicated story carried by several feeds, are found by a
+ * NearDuplicateDetector as the articles are added. They share the summaries of the first copy,
+ * and only that copy is shown on the main page.
+ * 
+ * The article text of each feed read is kept off the heap in its own TextArena generation, which
+ * is released as a whole once the feed has been read again.
+ * 
+ * Pages are rendered in memory first and a PageManifest only writes those whose bytes have
+ * changed, so the pages of a quiet cycle keep their modification times and ETags. After
+ * index.html, a machine-readable snapshot of the page is published by a SnapshotWriter.
+ * 
+ * Several instances sharing one output volume can run as a cluster, in which case the feeds are
+ * split between them by a ClusterCoordinator.
  */
 public class TerracedNews extends Thread {
-	private RSSReader reader = null; //The RSS feed reader
 	private HashMap<String, Vector<Atom>> articles = null; //A hashmap of the extracted news articles
-	private String rssFeedURLString = null; //The String of the URL for the RSS feed to follow
+	private String[] rssFeedURLStrings = null; //The Strings of the URLs for the RSS feeds to follow
+	private HashMap<String, Vector<Atom>> feedArticles = null; //The articles last read from each feed
+	private HashMap<String, FeedCircuitBreaker> breakers = null; //The circuit breaker of each feed
+	private TextArena arena = null; //Keeps the article text of the feeds off the heap
+	private HashMap<String, TextArena.Generation> feedGenerations = null; //The arena generation of the articles last read from each feed
+	private Vector<TextArena.Generation> retiredGenerations = null; //Arena generations to release at the start of the next cycle
+	private ExecutorService workers = null; //Runs the feed reads and page generation of each cycle
 	private String summaryFilesFolderPath = null; //The file path of the directory where summaries are stored
 	private File indexFile = null; //The File object for the AtAGlance main page
 	private SimpleSummariser summarizer = null; //The article summarizer
+	private ArticleIndex index = null; //The search index over every article read so far, null in batch mode
+	private ClusterCoordinator cluster = null; //Splits the feeds with other instances, null if not clustered
+	private Hashtable<String, Summary> summaryTexts = null; //The text of each summary written, keyed by summary file name
+	private SnapshotWriter snapshotWriter = null; //Publishes the machine-readable snapshots of the main page
+	private PageManifest manifest = null; //The content hash of each page written, used to skip unchanged pages
+	private NearDuplicateDetector duplicateDetector = null; //Finds the articles that are near-duplicates of others
+	private HashMap<Atom, Atom> duplicates = null; //The first copy of each near-duplicate article, keyed by the later copies
+	private int articlesPerCategory = ARTICLES_PER_CATEGORY; //Number of articles displayed and summarized for each category
 	
 	//Predefined article summary sentence lengths
 	private static final int SHORT = 5;
 	private static final int MEDIUM = 20;
 	private static final int LONG = 100;
+	static final int[] SUMMARY_LENGTHS = {SHORT, MEDIUM, LONG};
 	
 	private static final long SLEEP_TIME = 300000; //Sleep time between RSS feed updates - 5 minutes
+	private static final int FEED_TIMEOUT = 30000; //Connect and read timeout for each feed - 30 seconds
+	private static final long READ_DEADLINE = 60000; //Time allowed for reading all of the feeds - 1 minute
+	private static final long GENERATE_DEADLINE = 120000; //Time allowed for generating the pages - 2 minutes
+	private static final String TEMP_SUFFIX = ".tmp"; //Suffix of pages that are still being written
 	private static final String MISC_CAT = "Miscellaneous"; //Default category in case an article does not have one
 	
 	//HTML formatting
 	private static final String ARTICLE_PATH_FORMAT = "%s/%s_%d.html";
 	private static final String SUMMARY_HEADER = "<html>\n<head>\n<style type=\"text/css\" media=\"all\">\n@import \"css/main.css\";</style>\n</head>\n";
+	private static final String SUMMARY_SOURCE_START = "<!-- source "; //Records which article text a summary page was made from
+	private static final String SUMMARY_SOURCE_END = " -->\n";
+	private static final String SUMMARY_TEXT_START = "<p class=\"articleText\">\n";
+	private static final String SUMMARY_TEXT_END = "</p>\n<div id=\"overlayFooter\">\n";
 	private static final String DOCTYPE_STR = "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">\n";
 	private static final String HTML_START = "<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:lang=\"en\">\n";
 	private static final String MAIN_HEADER = "<head><title>Terraced News: The Guardian</title>\n<style type=\"text/css\" media=\"all\">\n@import \"css/main.css\";\n@import \"css/overlay-apple.css\";\n</style>\n</head>\n";
@@ -47,33 +100,72 @@ public class TerracedNews extends Thread {
 	private static final String BODY_CLOSER = "\t<div class=\"footer\">\n\t</div><!--container-->\n</html>\n";
 	
 	private static final int COL_NUM = 3; //Number of articles to display side-by-side
+	private static final int ARTICLES_PER_CATEGORY = 3; //Number of articles to display for each category
 	
 	/**
-	 * Clears out the summary files in the summaries directory; done when reading in new articles
-	 * from the RSS feed.
+	 * Clears out the summary files in the summaries directory that the current index file does not
+	 * link to; done once a new index file is in place. Summaries still being written are kept.
+	 * 
+	 * @param summaryFileNames The HashSet<String> of the names of the summary files to keep
 	 */
-	private void deleteArticleFiles () {
+	private void deleteStaleArticleFiles (HashSet<String> summaryFileNames) {
 		File summaryFileDir = new File(this.summaryFilesFolderPath);
+		long now = System.currentTimeMillis();
 		
 		if (summaryFileDir.isDirectory()) {
 			File[] summaryFiles = summaryFileDir.listFiles();
 			
 			for (int i = 0; i < summaryFiles.length; i++) {
-				summaryFiles[i].delete();
+				String name = summaryFiles[i].getName();
+				
+				//Leave summaries that another instance of a cluster may still be writing
+				boolean inProgress = name.endsWith(TEMP_SUFFIX) && (now - summaryFiles[i].lastModified() < GENERATE_DEADLINE);
+				
+				if ((summaryFileNames.contains(name) != true) && (inProgress != true)) {
+					summaryFiles[i].delete();
+				}
+			}
+		}
+	}//end void deleteStaleArticleFiles (HashSet<String>)
+	
+	/**
+	 * Throws an InterruptedIOException if page generation has been cancelled.
+	 * 
+	 * @throws InterruptedIOException
+	 */
+	private void checkCancelled () throws InterruptedIOException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Page generation cancelled");
+		}
+	}//end void checkCancelled ()
+	
+	/**
+	 * Moves a completely written temporary file over the target file.
+	 * 
+	 * @param tempFile The File that was written
+	 * @param targetFile The File to replace
+	 * @throws IOException if the file could not be moved
+	 */
+	static void replaceFile (File tempFile, File targetFile) throws IOException {
+		if (tempFile.renameTo(targetFile) != true) {
+			targetFile.delete();
+			
+			if (tempFile.renameTo(targetFile) != true) {
+				throw new IOException(String.format("Could not replace %s", targetFile.getPath()));
 			}
 		}
-	}//end void deleteArticleFiles ()
+	}//end void replaceFile (File, File)
 	
 	/**
 	 * Adds the given articles from the RSS reader to the hashmap. The hashmap is keyed by article
 	 * category, so the value is a Vector of articles under that category. If a category for an
-	 * article to add does not exist, then it is added.
+	 * article to add does not exist, then it is added. New articles are also added to the search
+	 * index, if there is one, and near-duplicates among the articles are recorded.
 	 * 
 	 * @param articlesToAdd The Vector<Atom> of articles to add to the hashmap
 	 */
 	public void addArticles (Vector<Atom> articlesToAdd) {
 		if (articlesToAdd != null) {
-			this.deleteArticleFiles();
 			this.articles.clear(); //delete the current articles in the hashmap
 			
 			for (int i = 0; i < articlesToAdd.size(); i++) {
@@ -92,26 +184,303 @@ public class TerracedNews extends Thread {
 				
 				this.articles.get(category).add(currentAtom);
 			}//end for
+			
+			this.duplicates = this.duplicateDetector.findDuplicates(articlesToAdd);
+			
+			if (this.duplicates.isEmpty() != true) {
+				System.err.printf("[TerracedNews.addArticles] %d near-duplicate articles share the summaries of another\n", this.duplicates.size());
+			}
+			
+			if (this.index != null) {
+				this.index.addArticles(articlesToAdd);
+			}
 		}//end if
 	}//end void addArticles (Vector<Atom>)
 	
 	/**
-	 * Runs the RSS feed reader, adding the articles it returns to the hashmap
+	 * Returns the article whose summaries the given article shares: the first copy if the article
+	 * is a near-duplicate, otherwise the article itself.
+	 * 
+	 * @param article The Atom of the news article
+	 * @return The Atom of the representative article
+	 */
+	Atom getRepresentative (Atom article) {
+		Atom retval = this.duplicates.get(article);
+		
+		if (retval == null) {
+			retval = article;
+		}
+		
+		return retval;
+	}//end Atom getRepresentative (Atom)
+	
+	/**
+	 * Returns the articles of a category that are shown on the main page: the first
+	 * articlesPerCategory of them, skipping near-duplicates of articles already shown.
+	 * 
+	 * @param atoms The Vector<Atom> of the articles of the category
+	 * @param shown The HashSet<Atom> of the representatives of the articles shown so far, to which those of the returned articles are added
+	 * @return The Vector<Atom> of the articles to show
+	 */
+	private Vector<Atom> getShownArticles (Vector<Atom> atoms, HashSet<Atom> shown) {
+		Vector<Atom> retval = new Vector<Atom>();
+		
+		for (int artIdx = 0; (artIdx < atoms.size()) && (retval.size() < this.articlesPerCategory); artIdx++) {
+			if (shown.add(this.getRepresentative(atoms.get(artIdx)))) {
+				retval.add(atoms.get(artIdx));
+			}
+		}
+		
+		return retval;
+	}//end Vector<Atom> getShownArticles (Vector<Atom>, HashSet<Atom>)
+	
+	/**
+	 * Runs an RSS feed reader for each feed on its own worker thread, adding the articles they
+	 * return to the hashmap. Reads still running after READ_DEADLINE are cancelled, and feeds
+	 * whose circuit breaker is open are not read at all; in both cases the articles last read from
+	 * the feed are used instead.
+	 * 
+	 * In cluster mode only the feeds this instance owns are downloaded, and a cached copy is kept
+	 * for the other instances. The other feeds are read from the copies cached by their owners.
+	 * 
+	 * @return true if at least one feed was read, false if the articles are unchanged
+	 * @throws InterruptedException if the thread is interrupted while waiting for the feeds
 	 */
-	public void runReader () {
+	public boolean runReader () throws InterruptedException {
+		HashMap<String, Future<Vector<Atom>>> reads = new HashMap<String, Future<Vector<Atom>>>();
+		HashMap<String, TextArena.Generation> generations = new HashMap<String, TextArena.Generation>();
+		HashSet<String> downloads = new HashSet<String>(); //the feeds read from the network
+		long deadline = System.currentTimeMillis() + READ_DEADLINE;
+		boolean retval = false;
+		
+		//Articles replaced last cycle are kept for a whole cycle in case a cancelled page generation
+		//was still reading them, but nothing can be using them by now
+		for (int i = 0; i < this.retiredGenerations.size(); i++) {
+			this.retiredGenerations.get(i).release();
+		}
+		
+		this.retiredGenerations.clear();
+		
+		for (int i = 0; i < this.rssFeedURLStrings.length; i++) {
+			generations.put(this.rssFeedURLStrings[i], this.arena.newGeneration());
+		}
+		
+		if (this.cluster != null) {
+			this.cluster.balance(this.rssFeedURLStrings);
+		}
+		
 		try {
-			this.reader = new RSSReader(this.rssFeedURLString); //create the RSS reader
-		} catch (RssParserException rpe) {
-			System.err.println("[TerracedNews] Error initializing RSS parser");
-			System.exit(2);
+			//Start all of the reads first, so that they run side by side
+			for (int i = 0; i < this.rssFeedURLStrings.length; i++) {
+				String feed = this.rssFeedURLStrings[i];
+				
+				TextArena.Generation generation = generations.get(feed);
+				
+				if (this.cluster == null) {
+					if (this.breakers.get(feed).allowRead(System.currentTimeMillis())) {
+						reads.put(feed, this.workers.submit(new FeedTask(feed, FEED_TIMEOUT, null, generation)));
+						downloads.add(feed);
+					}
+				} else if (this.cluster.ownsFeed(feed)) {
+					if (this.breakers.get(feed).allowRead(System.currentTimeMillis())) {
+						reads.put(feed, this.workers.submit(new FeedTask(feed, FEED_TIMEOUT, this.cluster.getFeedCacheFile(feed), generation)));
+						downloads.add(feed);
+					}
+				} else if (this.cluster.getFeedCacheFile(feed).exists()) {
+					String cacheURLString = this.cluster.getFeedCacheFile(feed).toURI().toString();
+					reads.put(feed, this.workers.submit(new FeedTask(cacheURLString, FEED_TIMEOUT, null, generation)));
+				}
+			}
+			
+			for (int i = 0; i < this.rssFeedURLStrings.length; i++) {
+				String feed = this.rssFeedURLStrings[i];
+				Future<Vector<Atom>> read = reads.get(feed);
+				
+				if (read != null) {
+					try {
+						long timeLeft = Math.max(0, deadline - System.currentTimeMillis());
+						
+						this.feedArticles.put(feed, read.get(timeLeft, TimeUnit.MILLISECONDS));
+						
+						//Keep the new text, leaving the text it replaces to be retired below
+						generations.put(feed, this.feedGenerations.put(feed, generations.get(feed)));
+						retval = true;
+						
+						if (downloads.contains(feed)) {
+							this.breakers.get(feed).recordSuccess();
+						}
+					} catch (TimeoutException te) {
+						System.err.printf("[TerracedNews.runReader] Reading %s missed the deadline\n", feed);
+						
+						if (downloads.contains(feed)) {
+							this.breakers.get(feed).recordFailure(System.currentTimeMillis());
+						}
+					} catch (ExecutionException ee) {
+						System.err.printf("[TerracedNews.runReader] Error reading %s: %s\n", feed, ee.getCause());
+						
+						if (downloads.contains(feed)) {
+							this.breakers.get(feed).recordFailure(System.currentTimeMillis());
+						}
+					}
+				}
+			}//end for
+		} finally {
+			//Cancel any reads that are still running
+			for (Future<Vector<Atom>> read : reads.values()) {
+				read.cancel(true);
+			}
+			
+			//What is left is the text of failed reads and of replaced articles
+			for (TextArena.Generation generation : generations.values()) {
+				if (generation != null) {
+					this.retiredGenerations.add(generation);
+				}
+			}
 		}
 		
-		this.reader.setRssAtoms();
-		this.addArticles(this.reader.getRssAtoms());
-	}//end void runReader ()
+		if (retval) {
+			Vector<Atom> allArticles = new Vector<Atom>();
+			
+			for (int i = 0; i < this.rssFeedURLStrings.length; i++) {
+				if (this.feedArticles.containsKey(this.rssFeedURLStrings[i])) {
+					allArticles.addAll(this.feedArticles.get(this.rssFeedURLStrings[i]));
+				}
+			}
+			
+			this.addArticles(allArticles);
+		}
+		
+		return retval;
+	}//end boolean runReader ()
 	
 	/**
-	 * Summarizes the given article and generates its HTML file
+	 * Returns the hash of the text of the given article that its summaries are made from, so that a
+	 * summary can be told apart from one made of an earlier version of the article.
+	 * 
+	 * @param article The Atom of the news article
+	 * @return The String of the hexadecimal hash
+	 */
+	private String getSummarySource (Atom article) {
+		return Integer.toHexString(article.getDescriptionText().hashCode());
+	}//end String getSummarySource (Atom)
+	
+	/**
+	 * Reads back the summary held by the given summary HTML file, such as one written by an earlier
+	 * run or by another instance of a cluster.
+	 * 
+	 * @param summaryFile The File of the summary HTML file
+	 * @return The Summary in the file, or null if there is no file or it can not be read
+	 */
+	private Summary readSummary (File summaryFile) {
+		Summary retval = null;
+		
+		if (summaryFile.exists()) {
+			try {
+				byte[] bytes = new byte[(int) summaryFile.length()];
+				DataInputStream in = new DataInputStream(new FileInputStream(summaryFile));
+				
+				try {
+					in.readFully(bytes);
+				} finally {
+					in.close();
+				}
+				
+				String page = new String(bytes, "UTF-8");
+				int sourceStart = page.indexOf(SUMMARY_SOURCE_START);
+				int sourceEnd = page.indexOf(SUMMARY_SOURCE_END, sourceStart + 1);
+				int textStart = page.indexOf(SUMMARY_TEXT_START);
+				int textEnd = page.lastIndexOf(SUMMARY_TEXT_END);
+				
+				//Pages written before sources were recorded are summarized again
+				if ((sourceStart != -1) && (sourceEnd != -1) && (textStart != -1) && (textEnd >= textStart + SUMMARY_TEXT_START.length())) {
+					String source = page.substring(sourceStart + SUMMARY_SOURCE_START.length(), sourceEnd);
+					String text = page.substring(textStart + SUMMARY_TEXT_START.length(), textEnd);
+					
+					retval = new Summary(source, text.replaceAll("<br>", "\n"));
+				}
+			} catch (IOException ioe) {
+				System.err.printf("[TerracedNews.readSummary] Error reading summary file %s\n", summaryFile.getPath());
+			}
+		}
+		
+		return retval;
+	}//end Summary readSummary (File)
+	
+	/**
+	 * Returns the summary of the given article for the given summary file. The article is only
+	 * summarized if neither the cache nor the summary file already holds a summary of the current
+	 * text of the article; in cluster mode the file has usually been written by the instance
+	 * owning the article's feed.
+	 * 
+	 * @param article The Atom of the news article to summarize
+	 * @param summaryFilePath The String of the path of the summary HTML file
+	 * @param length The int length of the summary to generate
+	 * @return The Summary of the article
+	 */
+	private Summary getSummary (Atom article, String summaryFilePath, int length) {
+		String summaryFileName = new File(summaryFilePath).getName();
+		String source = this.getSummarySource(article);
+		Summary retval = this.summaryTexts.get(summaryFileName);
+		
+		if ((retval == null) || (retval.source.equals(source) != true)) {
+			retval = this.readSummary(new File(summaryFilePath));
+			
+			if ((retval == null) || (retval.source.equals(source) != true)) {
+				retval = new Summary(source, this.summarizer.summarise(article.getDescriptionText(), length));
+			}
+			
+			this.summaryTexts.put(summaryFileName, retval);
+		}
+		
+		return retval;
+	}//end Summary getSummary (Atom, String, int)
+	
+	/**
+	 * Returns the text of a summary that has already been written, from the cache or else from the
+	 * summary file, without summarizing the article.
+	 * 
+	 * @param summaryFilePath The String of the path of the summary HTML file
+	 * @return The String of the summary text, or an empty String if the summary has not been written
+	 */
+	private String getWrittenSummaryText (String summaryFilePath) {
+		String summaryFileName = new File(summaryFilePath).getName();
+		Summary summary = this.summaryTexts.get(summaryFileName);
+		String retval = "";
+		
+		if (summary == null) {
+			summary = this.readSummary(new File(summaryFilePath));
+			
+			if (summary != null) {
+				this.summaryTexts.put(summaryFileName, summary);
+			}
+		}
+		
+		if (summary != null) {
+			retval = summary.text;
+		}
+		
+		return retval;
+	}//end String getWrittenSummaryText (String)
+	
+	/**
+	 * Records summaries of the given article that were made elsewhere, so that they are written
+	 * without summarizing the article again.
+	 * 
+	 * @param article The Atom of the summarized news article
+	 * @param texts The String[] of the short, medium and long summary text
+	 */
+	void putSummaryTexts (Atom article, String[] texts) {
+		String[] summaryLinks = this.getSummaryLinks(article);
+		String source = this.getSummarySource(article);
+		
+		for (int i = 0; i < summaryLinks.length; i++) {
+			this.summaryTexts.put(new File(summaryLinks[i]).getName(), new Summary(source, texts[i]));
+		}
+	}//end void putSummaryTexts (Atom, String[])
+	
+	/**
+	 * Summarizes the given article and generates its HTML file, unless the file already holds the
+	 * same page
 	 * 
 	 * @param article The Atom of the news article to summarize
 	 * @param summaryFilePath The String of the target path for the summary HTML file
@@ -124,10 +493,11 @@ public class TerracedNews extends Thread {
 		if (summaryFile != null) {
 			//Catches any I/O errors that occur when writing to the HTML file
 			try {
-				FileWriter summaryWriter = new FileWriter(summaryFile);
+				StringWriter summaryWriter = new StringWriter();
 				
 				//Generate the summary of the article
-				String summarizedText = this.summarizer.summarise(article.getDescriptionText(), length);
+				Summary summary = this.getSummary(article, summaryFilePath, length);
+				String summarizedText = summary.text;
 				String summaryTitle = String.format("%s", article.getTitle()); //Get the original article's title
 				String articleLinkStr = article.getGuid(); //Get the orignal article's URL
 				
@@ -135,22 +505,22 @@ public class TerracedNews extends Thread {
 				summarizedText = summarizedText.replaceAll("\\n", "<br>");
 				
 				summaryWriter.write(SUMMARY_HEADER);
+				summaryWriter.write(SUMMARY_SOURCE_START + summary.source + SUMMARY_SOURCE_END);
 				summaryWriter.write("<body>\n");
 				summaryWriter.write("<div id=\"overlayHeader\">\n");
 				summaryWriter.write(String.format("<h1>%s</h1>\n", summaryTitle));
 				summaryWriter.write("</div>\n");
-				summaryWriter.write("<p class=\"articleText\">\n");
+				summaryWriter.write(SUMMARY_TEXT_START);
 				
 				summaryWriter.write(summarizedText);
 				
-				summaryWriter.write("</p>\n");
-				summaryWriter.write("<div id=\"overlayFooter\">\n");
+				summaryWriter.write(SUMMARY_TEXT_END);
 				summaryWriter.write(String.format("<a href=\"%s\" target=\"_blank\">Full article</a>\n", articleLinkStr));
 				summaryWriter.write("</div>\n");
 				summaryWriter.write("</body>\n</html>\n");		
 				
-				summaryWriter.flush();
-				summaryWriter.close();
+				this.checkCancelled();
+				this.manifest.write(summaryFile, summaryWriter.toString()); //leaves an unchanged summary alone
 			} catch (IOException ioe) {
 				System.err.printf("[TerracedNews.writeSummary] Error writing summary file %s\n", summaryFilePath);
 			}//end try/catch
@@ -186,32 +556,52 @@ public class TerracedNews extends Thread {
 	}//end String generateArticleFileName (String)
 	
 	/**
-	 * Generates the summarized HTML files for the given article
+	 * Returns the paths of the summarized HTML files of the given article. The file names are made
+	 * of the article title and a hash of the article URL, as titles such as "Corrections and
+	 * clarifications" recur, and a batch lists every article of a long archive.
 	 * 
-	 * @param article The Atom of the article to generate the summarized HTML files for
-	 * @return The String[] of file paths for the generated HTML files
+	 * @param article The Atom of the article
+	 * @return The String[] of file paths for the short, medium and long summaries
 	 */
-	private String[] generateSummaryFiles (Atom article) {
+	private String[] getSummaryLinks (Atom article) {
 		String[] summaryLinks = new String[3];
 		String articleTitle = article.getTitle();
+		String articleURL = article.getGuid();
+		
+		if (articleURL.length() == 0) {
+			articleURL = articleTitle; //the title is all that identifies the article
+		}
 		
 		//Sanitize the article title
-		articleTitle = this.generateArticleFileName(articleTitle);
+		articleTitle = this.generateArticleFileName(articleTitle) + "_" + Integer.toHexString(articleURL.hashCode());
 		
 		if (articleTitle != null) {
 			summaryLinks[0] = String.format(ARTICLE_PATH_FORMAT, this.summaryFilesFolderPath, articleTitle, SHORT);
 			summaryLinks[1] = String.format(ARTICLE_PATH_FORMAT, this.summaryFilesFolderPath, articleTitle, MEDIUM);
 			summaryLinks[2] = String.format(ARTICLE_PATH_FORMAT, this.summaryFilesFolderPath, articleTitle, LONG);
-		
-			File shortSummary = new File(summaryLinks[0]);
-		
-			if (shortSummary.exists() != true) {
-				this.writeSummaries(article, summaryLinks);
-			}
 		} else {
 			summaryLinks = null;
 		}
 		
+		return summaryLinks;
+	}//end String[] getSummaryLinks (Atom)
+	
+	/**
+	 * Generates the summarized HTML files for the given article. The summaries are rendered every
+	 * time, but only written when they differ from the files already in place. A near-duplicate
+	 * article gets the summary files of its first copy.
+	 * 
+	 * @param article The Atom of the article to generate the summarized HTML files for
+	 * @return The String[] of file paths for the generated HTML files
+	 */
+	private String[] generateSummaryFiles (Atom article) {
+		Atom representative = this.getRepresentative(article);
+		String[] summaryLinks = this.getSummaryLinks(representative);
+		
+		if (summaryLinks != null) {
+			this.writeSummaries(representative, summaryLinks);
+		}
+		
 		return summaryLinks;
 	}//end String[] generateSummaryFiles (Atom)
 	
@@ -219,12 +609,12 @@ public class TerracedNews extends Thread {
 	 * Writes the HTML element for the given news article on the main page, including links to the
 	 * generated article summaries.
 	 * 
-	 * @param fw The FileWriter for the main page
+	 * @param fw The Writer for the main page
 	 * @param article The Atom of the news article
 	 * @param summaryLinks The String[] of file paths to the generated article summaries
 	 * @throws IOException
 	 */
-	private void writeLink (FileWriter fw, Atom article, String[] summaryLinks) throws IOException {
+	private void writeLink (Writer fw, Atom article, String[] summaryLinks) throws IOException {
 		String summaryType = "Short";
 		
 		fw.write("\t\t\t\t<div class=\"article\">\n"); //article HTML element
@@ -252,17 +642,20 @@ public class TerracedNews extends Thread {
 		fw.write("\t\t\t\t\t</ul>\n");
 		fw.write("\t\t\t\t</div>\n");
 		fw.write("\t\t\t</div>\n");
-	}//end void writeLink (FileWriter, Atom, String[])
+	}//end void writeLink (Writer, Atom, String[])
 	
 	/**
 	 * Generates the HTML elements for each of the news articles. Each element includes the article
-	 * title, hook, and links to the different generated summaries.
+	 * title, hook, and links to the different generated summaries. Near-duplicates of an article
+	 * already on the page are left out.
 	 * 
-	 * @param fw The FileWriter for the main page
+	 * @param fw The Writer for the main page
+	 * @param summaryFileNames The HashSet<String> to add the names of the linked summary files to
 	 * @throws IOException
 	 */
-	private void writeLinks (FileWriter fw) throws IOException {
+	private void writeLinks (Writer fw, HashSet<String> summaryFileNames) throws IOException {
 		Vector<String> categories = new Vector<String>(this.articles.keySet()); //retrieve the article categories
+		HashSet<Atom> shown = new HashSet<Atom>(); //the representatives of the articles on the page
 		String[] summaryLinks = null;
 		
 		fw.write("\t<table>\n\t\t<tbody>\n\t\t\t<tr>\n"); //open the table for the article elements
@@ -273,7 +666,7 @@ public class TerracedNews extends Thread {
 				fw.write("\t\t\t</tr>\n\t\t\t<tr>\n");
 			}
 			
-			Vector<Atom> atoms = this.articles.get(categories.get(catIdx)); //get the articles for the current category
+			Vector<Atom> atoms = this.getShownArticles(this.articles.get(categories.get(catIdx)), shown); //get the articles for the current category
 			
 			//start a new table element for the category
 			fw.write("\t\t\t\t<td>\n");
@@ -282,8 +675,14 @@ public class TerracedNews extends Thread {
 			
 			//generate elements for the different articles in the category
 			int artIdx = 0;
-			while ((artIdx < atoms.size()) && (artIdx < 3)) {
+			while (artIdx < atoms.size()) {
+				this.checkCancelled();
 				summaryLinks = this.generateSummaryFiles(atoms.get(artIdx));
+				
+				for (int i = 0; i < summaryLinks.length; i++) {
+					summaryFileNames.add(new File(summaryLinks[i]).getName());
+				}
+				
 				this.writeLink(fw, atoms.get(artIdx), summaryLinks);
 				artIdx++;
 			}
@@ -294,15 +693,15 @@ public class TerracedNews extends Thread {
 		}
 		
 		fw.write("\t\t\t</tr>\n\t\t</tbody>\n\t</table>\n");
-	}//end void writeLinks (FileWriter)
+	}//end void writeLinks (Writer, HashSet<String>)
 	
 	/**
 	 * Writes the header for the main page HTML document
 	 * 
-	 * @param fw The FileWriter for the main page
+	 * @param fw The Writer for the main page
 	 * @throws IOException
 	 */
-	private void writeHeader (FileWriter fw) throws IOException {
+	private void writeHeader (Writer fw) throws IOException {
 		fw.write(DOCTYPE_STR);
 		fw.write(HTML_START);
 		fw.write(MAIN_HEADER);
@@ -337,15 +736,15 @@ public class TerracedNews extends Thread {
 		fw.write("      <div id=\"spacerBottom\">\n");
 		fw.write("      </div>\n");
 		fw.write("    </div>\n");
-	}//end voi writeHeader (FileWriter)
+	}//end voi writeHeader (Writer)
 	
 	/**
 	 * Writes the JavaScript code that appears on the main page
 	 * 
-	 * @param fw The FileWriter for the main page
+	 * @param fw The Writer for the main page
 	 * @throws IOException
 	 */
-	private void writeScriptCode (FileWriter fw) throws IOException {
+	private void writeScriptCode (Writer fw) throws IOException {
 		fw.write("<!-- overlayed element - this should be positioned off screen so we don't see a flicker on load -->\n");
 		fw.write("<div class=\"apple_overlay\" id=\"overlay\">\n");
 		fw.write("\n");
@@ -384,61 +783,277 @@ public class TerracedNews extends Thread {
 	  	fw.write("});\n");
 	  	fw.write("});\n");
 	  	fw.write("</script>\n");
-	}//end void writeScriptCode (FileWriter)
+	}//end void writeScriptCode (Writer)
 	
 	/**
 	 * Runs the different methods to generate the AtAGlance main page and the article summaries
-	 * pages.
+	 * pages. The main page is rendered in memory and replaces index.html once it is complete, unless
+	 * it is unchanged. Then the summaries it no longer links to are deleted, the snapshot of the
+	 * page is published and the page manifest is saved.
+	 * 
+	 * @return true if index.html is up to date, false if it could not be written
 	 */
-	public void generateFiles () {
-		if (indexFile != null) {
-			try {
-				FileWriter fw = new FileWriter(indexFile); //the FileWriter for the main page
+	boolean writeFiles () {
+		HashSet<String> summaryFileNames = new HashSet<String>();
+		Vector<File> pages = new Vector<File>(); //the pages still in place, for the manifest
+		boolean retval = false;
+		
+		try {
+			StringWriter fw = new StringWriter(); //the Writer for the main page
+			
+			this.writeHeader(fw);
+			this.writeLinks(fw, summaryFileNames);
+			fw.write(CONTENT_CLOSER);
+			this.writeScriptCode(fw);
+			fw.write(BODY_CLOSER);
+			
+			this.checkCancelled();
+			this.manifest.write(this.indexFile, fw.toString());
+			this.deleteStaleArticleFiles(summaryFileNames);
+			this.summaryTexts.keySet().retainAll(summaryFileNames);
+			this.writeSnapshot();
+			
+			pages.add(this.indexFile);
+			
+			for (String summaryFileName : summaryFileNames) {
+				pages.add(new File(this.summaryFilesFolderPath, summaryFileName));
+			}
+			
+			this.manifest.retain(pages);
+			this.manifest.save();
+			retval = true;
+		} catch (InterruptedIOException iioe) {
+			System.err.println("[TerracedNews.writeFiles] Cancelled, keeping the previous index.html");
+		} catch (IOException ioe) {
+			System.err.println("[TerracedNews.writeFiles] Error writing index.html");
+			ioe.printStackTrace(System.err);
+		}
+		
+		return retval;
+	}//end boolean writeFiles ()
+	
+	/**
+	 * Publishes the snapshot of the main page: the categories, the articles shown under each and
+	 * the text of their summaries. The summaries have all been written by then, so their text is
+	 * looked up rather than summarized again.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeSnapshot () throws IOException {
+		Vector<String> categories = new Vector<String>(this.articles.keySet()); //same order as writeLinks
+		HashMap<String, Vector<SnapshotWriter.Article>> snapshotArticles = new HashMap<String, Vector<SnapshotWriter.Article>>();
+		HashSet<Atom> shown = new HashSet<Atom>();
+		
+		for (int catIdx = 0; catIdx < categories.size(); catIdx++) {
+			Vector<Atom> atoms = this.getShownArticles(this.articles.get(categories.get(catIdx)), shown);
+			Vector<SnapshotWriter.Article> categoryArticles = new Vector<SnapshotWriter.Article>();
+			
+			for (int artIdx = 0; artIdx < atoms.size(); artIdx++) {
+				Atom representative = this.getRepresentative(atoms.get(artIdx));
+				String[] summaryLinks = this.getSummaryLinks(representative);
+				String[] texts = new String[summaryLinks.length];
 				
-				this.writeHeader(fw);
-				this.writeLinks(fw);
-				fw.write(CONTENT_CLOSER);
-				this.writeScriptCode(fw);
-				fw.write(BODY_CLOSER);
+				this.checkCancelled();
 				
-				fw.flush();
-				fw.close();
-			} catch (IOException ioe) {
-				System.err.println("[TerracedNews.generateIndexFile] Error opening index.html");
-				ioe.printStackTrace(System.err);
+				for (int i = 0; i < summaryLinks.length; i++) {
+					texts[i] = this.getWrittenSummaryText(summaryLinks[i]);
+				}
+				
+				categoryArticles.add(new SnapshotWriter.Article(atoms.get(artIdx), summaryLinks, texts));
 			}
+			
+			snapshotArticles.put(categories.get(catIdx), categoryArticles);
 		}
-	}//end void generateIndexFile
+		
+		if (this.snapshotWriter.write(categories, snapshotArticles)) {
+			System.err.printf("[TerracedNews.writeSnapshot] Published snapshot version %d\n", this.snapshotWriter.getVersion());
+		}
+	}//end void writeSnapshot ()
 	
 	/**
-	 * Implementing the run method, which runs the RSS reader and generates the HTML files, then
-	 * sleeps for SLEEP_TIME
+	 * Writes the summaries of the articles shown on the main page that come from feeds this
+	 * instance owns, so that the instance writing index.html finds them already written. Used in
+	 * cluster mode by the instances that do not write index.html, which therefore also forget the
+	 * summaries and manifest entries of the articles no longer shown.
+	 */
+	private void writeOwnedSummaries () {
+		HashSet<Atom> ownedArticles = new HashSet<Atom>();
+		Vector<String> categories = new Vector<String>(this.articles.keySet()); //same order as writeLinks
+		HashSet<Atom> shown = new HashSet<Atom>();
+		HashSet<String> summaryFileNames = new HashSet<String>();
+		Vector<File> pages = new Vector<File>();
+		
+		for (int i = 0; i < this.rssFeedURLStrings.length; i++) {
+			String feed = this.rssFeedURLStrings[i];
+			
+			if (this.cluster.ownsFeed(feed) && this.feedArticles.containsKey(feed)) {
+				ownedArticles.addAll(this.feedArticles.get(feed));
+			}
+		}
+		
+		try {
+			for (int catIdx = 0; catIdx < categories.size(); catIdx++) {
+				Vector<Atom> atoms = this.getShownArticles(this.articles.get(categories.get(catIdx)), shown);
+				
+				for (int artIdx = 0; artIdx < atoms.size(); artIdx++) {
+					this.checkCancelled();
+					
+					if (ownedArticles.contains(atoms.get(artIdx))) {
+						String[] summaryLinks = this.generateSummaryFiles(atoms.get(artIdx));
+						
+						for (int i = 0; (summaryLinks != null) && (i < summaryLinks.length); i++) {
+							summaryFileNames.add(new File(summaryLinks[i]).getName());
+							pages.add(new File(summaryLinks[i]));
+						}
+					}
+				}
+			}
+			
+			this.summaryTexts.keySet().retainAll(summaryFileNames);
+			this.manifest.retain(pages);
+		} catch (InterruptedIOException iioe) {
+			System.err.println("[TerracedNews.writeOwnedSummaries] Cancelled");
+		}
+	}//end void writeOwnedSummaries ()
+	
+	/**
+	 * Generates the AtAGlance main page and the article summaries pages on a worker thread,
+	 * cancelling the generation if it is not done within GENERATE_DEADLINE. In cluster mode,
+	 * instances that do not hold the index lease only write the summaries of their own feeds.
+	 * 
+	 * @throws InterruptedException if the thread is interrupted while waiting for the pages
+	 */
+	public void generateFiles () throws InterruptedException {
+		if (indexFile != null) {
+			Future<?> generation = this.workers.submit(new Runnable() {
+				public void run () {
+					if ((cluster == null) || cluster.ownsIndex()) {
+						TerracedNews.this.writeFiles();
+					} else {
+						TerracedNews.this.writeOwnedSummaries();
+					}
+				}
+			});
+			
+			try {
+				generation.get(GENERATE_DEADLINE, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException te) {
+				System.err.println("[TerracedNews.generateFiles] Page generation missed the deadline");
+			} catch (ExecutionException ee) {
+				System.err.println("[TerracedNews.generateFiles] Error generating pages");
+				ee.getCause().printStackTrace(System.err);
+			} finally {
+				generation.cancel(true);
+			}
+		}
+	}//end void generateFiles ()
+	
+	/**
+	 * Implementing the run method, which runs the RSS readers and, if any feed was read, generates
+	 * the HTML files, then sleeps for SLEEP_TIME
 	 */
 	public void run () {
 		try {
 			while (true) {
-				this.runReader();
-				this.generateFiles();
+				if (this.runReader()) {
+					this.generateFiles();
+				}
+				
+				if (this.cluster != null) {
+					this.cluster.cycleCompleted();
+				}
+				
 				Thread.sleep(SLEEP_TIME);
 			}
 		} catch (InterruptedException ie) {
-			System.err.println("[TerracedNews] Sleep interrupted");
+			System.err.println("[TerracedNews] Interrupted");
+		} finally {
+			this.workers.shutdownNow();
+			
+			if (this.cluster != null) {
+				this.cluster.shutdown();
+			}
 		}
 	}//end void run ()
 	
+	/**
+	 * The text of one summary, with the hash of the article text it was made from.
+	 */
+	private static class Summary {
+		private String source = null; //the hash of the article text summarized
+		private String text = null; //the summary text
+		
+		/**
+		 * Constructor, which initializes the summary fields.
+		 * 
+		 * @param source The String of the hash of the article text summarized
+		 * @param text The String of the summary text
+		 */
+		private Summary (String source, String text) {
+			this.source = source;
+			this.text = text;
+		}//end constructor
+	}//end class Summary
+	
 	/**
 	 * Constructor, which does initialization
 	 * 
-	 * @param rssFeedURLString The String of the RSS feed URL
+	 * @param rssFeedURLString The String of the RSS feed URL, or of several URLs separated by commas
 	 * @param indexFileName The String of the main page file path
 	 * @param summaryFolderPath The String of the summary files directory path
 	 */
 	public TerracedNews (String rssFeedURLString, String indexFileName, String summaryFolderPath) {
+		this(rssFeedURLString.split(","), indexFileName, summaryFolderPath, true);
+	}//end constructor
+	
+	/**
+	 * Constructor for batch mode, which does initialization without any feeds to read. The articles
+	 * are added by the caller and the pages written with writeFiles, as the thread is never started.
+	 * Nothing searches a batch, so the articles are not indexed.
+	 * 
+	 * @param indexFileName The String of the main page file path
+	 * @param summaryFolderPath The String of the summary files directory path
+	 */
+	TerracedNews (String indexFileName, String summaryFolderPath) {
+		this(new String[0], indexFileName, summaryFolderPath, false);
+	}//end constructor
+	
+	/**
+	 * Constructor, which does initialization. The worker threads are only created if there are
+	 * feeds to read, and the search index only if the articles are to be indexed.
+	 * 
+	 * @param rssFeedURLStrings The String[] of the RSS feed URLs
+	 * @param indexFileName The String of the main page file path
+	 * @param summaryFolderPath The String of the summary files directory path
+	 * @param indexing The boolean true if the articles are to be indexed for searching
+	 */
+	private TerracedNews (String[] rssFeedURLStrings, String indexFileName, String summaryFolderPath, boolean indexing) {
 		this.articles = new HashMap<String, Vector<Atom>>();
-		this.rssFeedURLString = rssFeedURLString;
+		this.rssFeedURLStrings = rssFeedURLStrings;
+		this.feedArticles = new HashMap<String, Vector<Atom>>();
+		this.breakers = new HashMap<String, FeedCircuitBreaker>();
+		
+		if (this.rssFeedURLStrings.length > 0) {
+			this.workers = Executors.newCachedThreadPool();
+		}
+		
+		this.arena = new TextArena();
+		this.feedGenerations = new HashMap<String, TextArena.Generation>();
+		this.retiredGenerations = new Vector<TextArena.Generation>();
 		this.summaryFilesFolderPath = summaryFolderPath;
 		this.summarizer = new SimpleSummariser(); //create the summarizer
 		
+		if (indexing) {
+			this.index = new ArticleIndex();
+		}
+		
+		this.duplicateDetector = new NearDuplicateDetector();
+		this.duplicates = new HashMap<Atom, Atom>();
+		
+		for (int i = 0; i < this.rssFeedURLStrings.length; i++) {
+			this.breakers.put(this.rssFeedURLStrings[i], new FeedCircuitBreaker(this.rssFeedURLStrings[i]));
+		}
+		
 		File summaryFilesFolder = new File(this.summaryFilesFolderPath);
 		
 		if (summaryFilesFolder.exists() != true) {
@@ -449,20 +1064,107 @@ public class TerracedNews extends Thread {
 		}
 		
 		this.indexFile = new File(indexFileName);
+		this.summaryTexts = new Hashtable<String, Summary>();
+		this.snapshotWriter = new SnapshotWriter(this.indexFile.getAbsoluteFile().getParentFile());
+		this.manifest = new PageManifest(this.indexFile.getAbsoluteFile().getParentFile());
 	}//end constructor
 	
+	/**
+	 * Returns the search index over the articles read so far.
+	 * 
+	 * @return The ArticleIndex of the articles, or null in batch mode
+	 */
+	public ArticleIndex getIndex () {
+		return this.index;
+	}//end ArticleIndex getIndex ()
+	
+	/**
+	 * Sets the number of articles displayed for each category, all of which are summarized.
+	 * 
+	 * @param articlesPerCategory The int number of articles
+	 */
+	void setArticlesPerCategory (int articlesPerCategory) {
+		this.articlesPerCategory = articlesPerCategory;
+	}//end void setArticlesPerCategory (int)
+	
+	/**
+	 * Joins the cluster of instances sharing the given directory, which split the feeds between
+	 * them. Must be called before the thread is started.
+	 * 
+	 * @param clusterDirPath The String of the shared cluster directory path
+	 * @throws IOException if the directory can not be used
+	 */
+	public void joinCluster (String clusterDirPath) throws IOException {
+		this.cluster = new ClusterCoordinator(clusterDirPath);
+	}//end void joinCluster (String)
+	
+	/**
+	 * Prints the usage message and exits.
+	 */
+	private static void usage () {
+		System.err.println("Usage: AtAGlance [news feed URL[,news feed URL...]] [index file] [summary files folder] [--search-port port] [--cluster directory]");
+		System.err.println("       AtAGlance --batch [saved feeds folder] [index file] [summary files folder]");
+		System.exit(1);
+	}//end void usage ()
+	
 	/**
 	 * Main method, which runs the program
 	 * 
-	 * @param args [0] is the RSS feed URL, [1] is the index file path, [2] is the summary files folder path
+	 * @param args [0] is the RSS feed URL (or comma separated URLs), [1] is the index file path, [2] is the summary files folder path,
+	 *             optionally followed by "--search-port" and the local port to serve search queries on,
+	 *             and by "--cluster" and the shared cluster directory path; or [0] is "--batch", [1] is the
+	 *             directory of saved feed documents, [2] is the index file path and [3] is the summary files folder path
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
-			System.err.println("Usage: AtAGlance [news feed URL] [index file] [summary files folder]");
-			System.exit(1);
+		int searchPort = -1;
+		String clusterDirPath = null;
+		
+		if ((args.length > 0) && args[0].equals("--batch")) {
+			if (args.length != 4) {
+				usage();
+			}
+			
+			System.exit(new BatchRunner(args[1], args[2], args[3]).run() ? 0 : 6);
+		}
+		
+		if ((args.length < 3) || ((args.length % 2) != 1)) {
+			usage();
+		}
+		
+		for (int i = 3; i < args.length; i += 2) {
+			if (args[i].equals("--search-port")) {
+				try {
+					searchPort = Integer.parseInt(args[i + 1]);
+				} catch (NumberFormatException nfe) {
+					usage();
+				}
+			} else if (args[i].equals("--cluster")) {
+				clusterDirPath = args[i + 1];
+			} else {
+				usage();
+			}
 		}
 		
 		TerracedNews tn = new TerracedNews(args[0], args[1], args[2]);
+		
+		if (clusterDirPath != null) {
+			try {
+				tn.joinCluster(clusterDirPath);
+			} catch (IOException ioe) {
+				System.err.printf("[TerracedNews] Error joining the cluster in %s\n", clusterDirPath);
+				System.exit(5);
+			}
+		}
+		
+		if (searchPort != -1) {
+			try {
+				new SearchServer(tn.getIndex(), searchPort).start();
+			} catch (IOException ioe) {
+				System.err.printf("[TerracedNews] Error starting search server on port %d\n", searchPort);
+				System.exit(4);
+			}
+		}
+		
 		tn.start();
 	}//end main
 }//end class TerracedNews
@@ -3,9 +3,10 @@ package rss_processing;
 //import java.util.Calendar;
 //import java.util.TimeZone;
 
+import java.nio.ByteBuffer;
+
 import com.sun.cnpi.rss.elements.Author;
 import com.sun.cnpi.rss.elements.BasicElement;
-import com.sun.cnpi.rss.elements.Description;
 import com.sun.cnpi.rss.elements.Guid;
 import com.sun.cnpi.rss.elements.Item;
 //import com.sun.cnpi.rss.elements.Link;
@@ -16,10 +17,17 @@ import com.sun.cnpi.rss.elements.Title;
  * The Atom class is a container for the pertinent elements from the RSS "atoms", in this case
  * the individual news articles. These elements are obtained from the Item class defined by the
  * RSS Utilities library (rssutils.jar)
+ * 
+ * The article text is the largest part of each article. When a TextArena generation is given, it
+ * is kept outside of the heap in that generation and referenced by offset and length; the Atom
+ * must then not be used after the generation is released.
  */
 public class Atom { //implements Comparable {
 	private Title title = null; //article title
-	private Description description = null; //for the Guardian, this is the article text
+	private String descriptionText = null; //for the Guardian, this is the article text; null if it is in the arena
+	private TextArena.Generation textGeneration = null; //the arena generation holding the article text, or null
+	private long descriptionRef = 0; //the reference to the article text in the arena generation
+	private int descriptionLength = 0; //the length of the article text in the arena generation, in bytes
 	private PubDate pubDate = null; //the publication date of the article
 	private Author author = null; //the article author, undefined for the Guardian
 	private Guid guid = null; //the URL of the original article
@@ -92,15 +100,49 @@ public class Atom { //implements Comparable {
 	 * @return The String of the article text
 	 */
 	public String getDescriptionText () {
-		String retval = "";
+		String retval = this.descriptionText;
+		
+		if (retval == null) {
+			retval = this.textGeneration.read(this.descriptionRef, this.descriptionLength);
+		}
+		
+		return retval;
+	}//end String getDescriptionText ()
+	
+	/**
+	 * Returns the UTF-8 bytes of the article text with HTML formatting removed. If the text is
+	 * kept in a TextArena, the returned buffer is a read-only view of the arena and no bytes are
+	 * copied.
+	 * 
+	 * @return The ByteBuffer of the article text
+	 */
+	public ByteBuffer getDescriptionBytes () {
+		ByteBuffer retval = null;
+		
+		if (this.descriptionText != null) {
+			retval = ByteBuffer.wrap(TextArena.encode(this.descriptionText)).asReadOnlyBuffer();
+		} else {
+			retval = this.textGeneration.view(this.descriptionRef, this.descriptionLength);
+		}
+		
+		return retval;
+	}//end ByteBuffer getDescriptionBytes ()
+	
+	/**
+	 * Removes the HTML formatting from the <description> tag text, keeping line breaks.
+	 * 
+	 * @param description The String of the <description> tag text with HTML formatting
+	 * @return The String of the article text
+	 */
+	private String stripDescription (String description) {
+		String retval = description;
 		
-		retval = this.getElementString(this.description);
 		retval = retval.replaceAll("<br.*?>", "\n");
 		retval = retval.replaceAll("</p>", "\n");
 		retval = retval.replaceAll("<.+?>", "");
 		
 		return retval;
-	}//end String getDescriptionText ()
+	}//end String stripDescription (String)
 	
 	/**
 	 * Returns the String of the article category.
@@ -230,17 +272,39 @@ public class Atom { //implements Comparable {
 	}//end int compareTo (Object)*/
 
 	/**
-	 * Constructor, which initializes element values.
+	 * Constructor, which initializes element values, keeping the article text on the heap.
 	 * 
 	 * @param item The Item which represents the RSS atom (article)
 	 */
 	public Atom (Item item) {
+		this(item, null);
+	}//end constructor (Item)
+	
+	/**
+	 * Constructor, which initializes element values. The HTML formatting is removed from the
+	 * article text once, here, and the text is stored in the given arena generation.
+	 * 
+	 * @param item The Item which represents the RSS atom (article)
+	 * @param textGeneration The TextArena.Generation to store the article text in, or null to keep it on the heap
+	 */
+	public Atom (Item item, TextArena.Generation textGeneration) {
+		String description = this.getElementString(item.getDescription());
+		
 		this.title = item.getTitle();
-		this.description = item.getDescription();
 		this.pubDate = item.getPubDate();
 		this.author = item.getAuthor();
 		this.guid = item.getGuid();
-		this.tagline = this.extractTagline(this.description.getText());
+		this.tagline = this.extractTagline(description);
 		this.category = this.extractCategory(this.getElementString(this.guid));
-	}//end constructor
+		
+		if (textGeneration == null) {
+			this.descriptionText = this.stripDescription(description);
+		} else {
+			byte[] descriptionBytes = TextArena.encode(this.stripDescription(description));
+			
+			this.textGeneration = textGeneration;
+			this.descriptionRef = textGeneration.store(descriptionBytes);
+			this.descriptionLength = descriptionBytes.length;
+		}
+	}//end constructor (Item, TextArena.Generation)
 }//end class Atom
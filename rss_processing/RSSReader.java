@@ -1,8 +1,12 @@
 package rss_processing;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.Iterator;
 import java.util.TreeSet;
 import java.util.Vector;
@@ -26,26 +30,92 @@ public class RSSReader {
 	private RssParser parser = null; //the RSS feed reader and XML document parser
 	private Rss rssStore = null; //stores the RSS atoms
 	private Vector<Atom> atoms = null; //the Vector of RSS atom metadata read from the feed
+	private int timeout = DEFAULT_TIMEOUT; //the connect and read timeout for the feed, in milliseconds
+	
+	public static final int DEFAULT_TIMEOUT = 30000; //Default connect and read timeout - 30 seconds
 	
 	/**
 	 * Sets the URL for the RSS feed to read from, then reads and parses the XML document from that
-	 * feed, storing the resulting atoms.
+	 * feed, storing the resulting atoms. Connecting to the feed and each read from it are bounded
+	 * by the reader's timeout, so a hung server can not block the caller forever.
 	 * 
 	 * @param rssURLString The String of the RSS feed URL
 	 */
 	public void setRssURL (String rssURLString) {
+		InputStream feedStream = null;
+		
+		this.rssStore = null;
+		
 		try {
 			this.rssURL = new URL(rssURLString);
-			this.rssStore = this.parser.parse(this.rssURL);
+			
+			URLConnection connection = this.rssURL.openConnection();
+			connection.setConnectTimeout(this.timeout);
+			connection.setReadTimeout(this.timeout);
+			
+			feedStream = connection.getInputStream();
+			this.rssStore = this.parser.parse(feedStream);
 		} catch (MalformedURLException mue) {
 			System.err.printf("[RSSReader.setRssURL] %s is not a well formed URL\n", rssURLString);
 		} catch (RssParserException rpe) {
 			System.err.println("[RSSReader.setRssURL] Parser error\n");
 		} catch (IOException e) {
 			System.err.printf("[RSSReader.setRssURL] I/O error reading %s\n", rssURLString);
+		} finally {
+			if (feedStream != null) {
+				try {
+					feedStream.close();
+				} catch (IOException ioe) {
+					//nothing left to read
+				}
+			}
 		}
 	}//end void setRssURL (String)
 	
+	/**
+	 * Downloads the RSS feed document at the given URL into the given file without parsing it,
+	 * using the same timeouts as setRssURL.
+	 * 
+	 * @param rssURLString The String of the RSS feed URL
+	 * @param targetFile The File to save the feed document to
+	 * @param timeout The int connect and read timeout for the feed, in milliseconds
+	 * @throws IOException if the feed could not be downloaded or saved
+	 */
+	public static void saveFeed (String rssURLString, File targetFile, int timeout) throws IOException {
+		URLConnection connection = new URL(rssURLString).openConnection();
+		connection.setConnectTimeout(timeout);
+		connection.setReadTimeout(timeout);
+		
+		InputStream feedStream = connection.getInputStream();
+		FileOutputStream fileStream = null;
+		
+		try {
+			byte[] buffer = new byte[8192];
+			int count = 0;
+			
+			fileStream = new FileOutputStream(targetFile);
+			
+			while ((count = feedStream.read(buffer)) != -1) {
+				fileStream.write(buffer, 0, count);
+			}
+		} finally {
+			feedStream.close();
+			
+			if (fileStream != null) {
+				fileStream.close();
+			}
+		}
+	}//end void saveFeed (String, File, int)
+	
+	/**
+	 * Returns whether the last call to setRssURL read and parsed a feed document.
+	 * 
+	 * @return true if a feed document is available
+	 */
+	public boolean hasFeed () {
+		return (this.rssStore != null) && (this.rssStore.getChannel() != null);
+	}//end boolean hasFeed ()
+	
 	/**
 	 * Returns the Vector of RSS atoms (articles).
 	 * 
@@ -57,32 +127,59 @@ public class RSSReader {
 	
 	/**
 	 * Iterates through the individual Item objects stored in rssReader and converts them into
-	 * Atom objects.
+	 * Atom objects, keeping the article text on the heap. Does nothing if no feed document was read.
 	 */
 	public void setRssAtoms () {
+		this.setRssAtoms(null);
+	}//end void setRssAtoms ()
+	
+	/**
+	 * Iterates through the individual Item objects stored in rssReader and converts them into
+	 * Atom objects. Does nothing if no feed document was read.
+	 * 
+	 * @param textGeneration The TextArena.Generation to store the article text in, or null to keep it on the heap
+	 */
+	public void setRssAtoms (TextArena.Generation textGeneration) {
+		if (this.hasFeed() != true) {
+			System.err.println("[RSSReader.setRssAtoms] No feed document to read atoms from");
+			return;
+		}
+		
 		Channel channel = rssStore.getChannel();
 		Object[] items = channel.getItems().toArray();
 		
 		for (int i = 0; i < items.length; i++) {
 			if (items[i] != null) {
-				this.atoms.add(new Atom((Item) items[i]));
+				this.atoms.add(new Atom((Item) items[i], textGeneration));
 			} else {
 				System.err.printf("[RSSReader] Item %d is null!\n", i);
 			}
 		}
-	}//end void setRssAtoms ()
+	}//end void setRssAtoms (TextArena.Generation)
 	
 	/**
-	 * Initializes the RssParser and the Vector of Atoms.
+	 * Initializes the RssParser and the Vector of Atoms, using the default timeout.
 	 * 
 	 * @param rssURLString The String of the RSS feed URL
 	 * @throws RssParserException
 	 */
 	public RSSReader (String rssURLString) throws RssParserException {
+		this(rssURLString, DEFAULT_TIMEOUT);
+	}//end constructor (String)
+	
+	/**
+	 * Initializes the RssParser and the Vector of Atoms.
+	 * 
+	 * @param rssURLString The String of the RSS feed URL
+	 * @param timeout The int connect and read timeout for the feed, in milliseconds
+	 * @throws RssParserException
+	 */
+	public RSSReader (String rssURLString, int timeout) throws RssParserException {
 		this.parser = RssParserFactory.createDefault();
 		this.atoms = new Vector<Atom>();
+		this.timeout = timeout;
 		this.setRssURL(rssURLString);
-	}//end constructor (String)
+	}//end constructor (String, int)
 	
 	/**
 	 * Test main
@@ -0,0 +1,168 @@
+package rss_processing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Vector;
+
+/**
+ * The TextArena class stores article text outside of the Java heap, as UTF-8 in direct
+ * ByteBuffers, so that large archives of article text do not add to garbage collection work.
+ * Text is appended to a Generation, normally one per feed read, and is referenced by its offset
+ * and length within that generation. When the articles of a generation are no longer needed,
+ * the whole generation is released at once and its buffers are reused by later generations.
+ * 
+ * @see rss_processing.Atom
+ */
+public class TextArena {
+	private Vector<ByteBuffer> freeChunks = null; //released chunks waiting to be reused
+	
+	private static final int CHUNK_SIZE = 262144; //Size of each pooled buffer - 256KB
+	private static final int MAX_FREE_CHUNKS = 64; //Released chunks kept for reuse beyond which they are dropped
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Returns a chunk with at least the given capacity, reusing a released chunk if possible.
+	 * 
+	 * @param capacity The int number of bytes needed
+	 * @return The cleared ByteBuffer chunk
+	 */
+	private synchronized ByteBuffer allocate (int capacity) {
+		ByteBuffer retval = null;
+		
+		if ((capacity <= CHUNK_SIZE) && (this.freeChunks.isEmpty() != true)) {
+			retval = this.freeChunks.remove(this.freeChunks.size() - 1);
+			retval.clear();
+		} else {
+			//Text larger than a chunk gets a buffer of its own, which is not pooled
+			retval = ByteBuffer.allocateDirect(Math.max(capacity, CHUNK_SIZE));
+		}
+		
+		return retval;
+	}//end ByteBuffer allocate (int)
+	
+	/**
+	 * Returns the given chunks to the pool.
+	 * 
+	 * @param chunks The Vector<ByteBuffer> of chunks to release
+	 */
+	private synchronized void free (Vector<ByteBuffer> chunks) {
+		for (int i = 0; i < chunks.size(); i++) {
+			ByteBuffer chunk = chunks.get(i);
+			
+			//Chunks that are not pooled are left for the garbage collector
+			if ((chunk.capacity() == CHUNK_SIZE) && (this.freeChunks.size() < MAX_FREE_CHUNKS)) {
+				this.freeChunks.add(chunk);
+			}
+		}
+	}//end void free (Vector<ByteBuffer>)
+	
+	/**
+	 * Encodes the given text as UTF-8, ready to be stored.
+	 * 
+	 * @param text The String to encode
+	 * @return The byte[] of UTF-8 bytes
+	 */
+	public static byte[] encode (String text) {
+		return text.getBytes(UTF8);
+	}//end byte[] encode (String)
+	
+	/**
+	 * Starts a new generation of text.
+	 * 
+	 * @return The new, empty Generation
+	 */
+	public Generation newGeneration () {
+		return new Generation();
+	}//end Generation newGeneration ()
+	
+	/**
+	 * A group of texts that are stored together and released together. Texts are appended by a
+	 * single thread, but may be read from any thread until the generation is released. Storing and
+	 * releasing exclude each other, as a read that missed its deadline may still be storing when
+	 * its generation is released; it then fails rather than writing into chunks handed on to
+	 * another generation.
+	 */
+	public class Generation {
+		private Vector<ByteBuffer> chunks = new Vector<ByteBuffer>(); //the chunks holding this generation's text
+		private volatile boolean released = false; //true once the chunks have been returned to the arena
+		
+		/**
+		 * Appends the given encoded text, returning a reference to it. The chunk index is kept in
+		 * the upper half of the reference and the offset within the chunk in the lower half, so the
+		 * reference together with the text's length is all that is needed to read it back.
+		 * 
+		 * @param bytes The byte[] of UTF-8 text, as returned by encode
+		 * @return The long reference to the stored text
+		 * @throws IllegalStateException if the generation has been released
+		 */
+		public synchronized long store (byte[] bytes) {
+			if (this.released) {
+				throw new IllegalStateException("Text generation has been released");
+			}
+			
+			ByteBuffer chunk = this.chunks.isEmpty() ? null : this.chunks.lastElement();
+			
+			if ((chunk == null) || (chunk.remaining() < bytes.length)) {
+				chunk = allocate(bytes.length);
+				this.chunks.add(chunk);
+			}
+			
+			long retval = (((long) this.chunks.size() - 1) << 32) | chunk.position();
+			chunk.put(bytes);
+			
+			return retval;
+		}//end long store (byte[])
+		
+		/**
+		 * Returns the stored UTF-8 bytes of a text as a read-only view of the arena, without
+		 * copying them.
+		 * 
+		 * @param reference The long reference returned by store
+		 * @param length The int length of the text in bytes
+		 * @return The read-only ByteBuffer positioned at the start of the text
+		 */
+		public ByteBuffer view (long reference, int length) {
+			if (this.released) {
+				throw new IllegalStateException("Text generation has been released");
+			}
+			
+			ByteBuffer retval = this.chunks.get((int) (reference >>> 32)).asReadOnlyBuffer();
+			int offset = (int) reference;
+			
+			retval.limit(offset + length);
+			retval.position(offset);
+			
+			return retval;
+		}//end ByteBuffer view (long, int)
+		
+		/**
+		 * Decodes a stored text.
+		 * 
+		 * @param reference The long reference returned by store
+		 * @param length The int length of the text in bytes
+		 * @return The String of the text
+		 */
+		public String read (long reference, int length) {
+			return UTF8.decode(this.view(reference, length)).toString();
+		}//end String read (long, int)
+		
+		/**
+		 * Releases all of the text of this generation back to the arena. Texts of the generation
+		 * must not be read afterwards.
+		 */
+		public synchronized void release () {
+			if (this.released != true) {
+				this.released = true;
+				free(this.chunks);
+				this.chunks.clear();
+			}
+		}//end void release ()
+	}//end class Generation
+	
+	/**
+	 * Constructor, which creates an empty arena.
+	 */
+	public TextArena () {
+		this.freeChunks = new Vector<ByteBuffer>();
+	}//end constructor
+}//end class TextArena
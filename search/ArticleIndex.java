@@ -0,0 +1,604 @@
+package search;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import rss_processing.Atom;
+
+/**
+ * The ArticleIndex class is an in-memory inverted index over the title, tag line and description
+ * text of the articles read from the RSS feed. It is built incrementally: each Atom is added once,
+ * keyed by its guid (or its title if it has no guid), as it arrives from the RSSReader, so articles
+ * that stay in the feed across several updates are only indexed the first time they are seen.
+ * 
+ * Each term maps to a PostingList of delta-encoded document ids and word positions, which supports
+ * both term and phrase queries. All clauses of a query must match, and results are ranked by
+ * recency, newest publication date first.
+ * 
+ * Document ids follow the order articles arrive in, which is close to, but not quite, the order of
+ * their publication dates. Queries are therefore matched one window of SEARCH_WINDOW documents at a
+ * time, newest window first, and stop once no older document can be newer than the results already
+ * found; the newest publication date up to the end of each window is kept for this.
+ * 
+ * The index may be queried from several threads while the TerracedNews thread adds articles.
+ * 
+ * @see search.PostingList
+ * @see search.SearchServer
+ */
+public class ArticleIndex {
+	private HashMap<String, PostingList> postings = null; //the posting list for each term
+	private HashMap<String, Integer> docIdsByKey = null; //the document id of each indexed article, keyed by guid or title
+	private String[] titles = null; //the article title of each document
+	private String[] guids = null; //the article URL of each document
+	private long[] times = null; //the publication time of each document, used for ranking
+	private long[] newestTimes = null; //the newest publication time of the documents up to the end of each window
+	private int docCount = 0; //the number of documents indexed
+	private ReentrantReadWriteLock lock = null; //guards all of the above
+	private SimpleDateFormat dateFormat = null; //parses RSS publication dates
+	
+	private static final int INITIAL_DOCS = 1024; //Initial size of the per-document arrays
+	private static final int SEARCH_WINDOW = 4096; //Number of documents matched at a time by a search
+	private static final String PUB_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz"; //RFC 822 date format used by RSS
+	
+	/**
+	 * Splits the given text into lower case terms made of letters and digits.
+	 * 
+	 * @param text The String of text to split
+	 * @return The Vector<String> of terms, in order
+	 */
+	public static Vector<String> tokenize (String text) {
+		Vector<String> retval = new Vector<String>();
+		
+		if (text != null) {
+			int start = -1;
+			
+			for (int i = 0; i <= text.length(); i++) {
+				boolean isWordChar = (i < text.length()) && Character.isLetterOrDigit(text.charAt(i));
+				
+				if (isWordChar && (start == -1)) {
+					start = i;
+				} else if ((isWordChar != true) && (start != -1)) {
+					retval.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+					start = -1;
+				}
+			}
+		}
+		
+		return retval;
+	}//end Vector<String> tokenize (String)
+	
+	/**
+	 * Parses the given RSS publication date, falling back to the current time if it can not be
+	 * parsed so that new articles with bad dates still rank as recent.
+	 * 
+	 * @param pubDate The String of the publication date
+	 * @return The long publication time in milliseconds
+	 */
+	private long parsePubDate (String pubDate) {
+		long retval = System.currentTimeMillis();
+		
+		try {
+			retval = this.dateFormat.parse(pubDate.trim()).getTime();
+		} catch (ParseException pe) {
+			//keep the current time
+		}
+		
+		return retval;
+	}//end long parsePubDate (String)
+	
+	/**
+	 * Adds the terms of one field of an article to the per-term position lists.
+	 * 
+	 * @param text The String of field text
+	 * @param firstPosition The int position of the first term of the field
+	 * @param termPositions The HashMap of term positions for the article being indexed
+	 * @return The int position following the last term of the field
+	 */
+	private int addField (String text, int firstPosition, HashMap<String, IntList> termPositions) {
+		Vector<String> terms = tokenize(text);
+		int position = firstPosition;
+		
+		for (int i = 0; i < terms.size(); i++) {
+			IntList positions = termPositions.get(terms.get(i));
+			
+			if (positions == null) {
+				positions = new IntList();
+				termPositions.put(terms.get(i), positions);
+			}
+			
+			positions.add(position);
+			position++;
+		}
+		
+		return position;
+	}//end int addField (String, int, HashMap<String, IntList>)
+	
+	/**
+	 * Grows the per-document arrays if they are full.
+	 */
+	private void ensureDocCapacity () {
+		if (this.docCount == this.titles.length) {
+			int newLength = this.titles.length * 2;
+			String[] newTitles = new String[newLength];
+			String[] newGuids = new String[newLength];
+			long[] newTimes = new long[newLength];
+			long[] newNewestTimes = new long[(newLength / SEARCH_WINDOW) + 1];
+			
+			System.arraycopy(this.titles, 0, newTitles, 0, this.docCount);
+			System.arraycopy(this.guids, 0, newGuids, 0, this.docCount);
+			System.arraycopy(this.times, 0, newTimes, 0, this.docCount);
+			System.arraycopy(this.newestTimes, 0, newNewestTimes, 0, this.newestTimes.length);
+			
+			this.titles = newTitles;
+			this.guids = newGuids;
+			this.times = newTimes;
+			this.newestTimes = newNewestTimes;
+		}
+	}//end void ensureDocCapacity ()
+	
+	/**
+	 * Raises the newest publication time of the window of the given document, which is always the
+	 * last window, to the document's time. A document starting a new window starts from the newest
+	 * time of the windows before it.
+	 * 
+	 * @param docId The int id of the document just added
+	 */
+	private void updateNewestTime (int docId) {
+		int window = docId / SEARCH_WINDOW;
+		
+		if ((docId % SEARCH_WINDOW) == 0) {
+			this.newestTimes[window] = (window > 0) ? this.newestTimes[window - 1] : Long.MIN_VALUE;
+		}
+		
+		this.newestTimes[window] = Math.max(this.newestTimes[window], this.times[docId]);
+	}//end void updateNewestTime (int)
+	
+	/**
+	 * Returns the key articles are indexed once by: the article's URL, or its title if it has none.
+	 * 
+	 * @param article The Atom of the article
+	 * @return The String key, empty if the article has neither
+	 */
+	private String getArticleKey (Atom article) {
+		String retval = article.getGuid(); //empty rather than null when the element is missing
+		
+		if (retval.length() == 0) {
+			retval = article.getTitle();
+		}
+		
+		return retval;
+	}//end String getArticleKey (Atom)
+	
+	/**
+	 * Returns whether an article with the given key has already been indexed.
+	 * 
+	 * @param key The String key of the article
+	 * @return true if the article is indexed
+	 */
+	private boolean isIndexed (String key) {
+		boolean retval = false;
+		
+		this.lock.readLock().lock();
+		
+		try {
+			retval = this.docIdsByKey.containsKey(key);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+		
+		return retval;
+	}//end boolean isIndexed (String)
+	
+	/**
+	 * Adds the given article to the index, unless an article with the same guid, or the same
+	 * title if it has no guid, has already been added. Articles with neither are not indexed.
+	 * 
+	 * @param article The Atom of the article to index
+	 * @return true if the article was added, false if it was already indexed
+	 */
+	public boolean addArticle (Atom article) {
+		boolean retval = false;
+		String key = this.getArticleKey(article);
+		
+		//Articles stay in a feed for many updates, so only new ones are tokenized, and only then is
+		//their text read back out of the arena
+		if ((key.length() > 0) && (this.isIndexed(key) != true)) {
+			//Tokenize outside of the lock; one position is skipped between fields so that phrases
+			//do not match across them
+			HashMap<String, IntList> termPositions = new HashMap<String, IntList>();
+			int position = this.addField(article.getTitle(), 0, termPositions);
+			position = this.addField(article.getTagline().replaceAll("<.+?>", ""), position + 1, termPositions);
+			this.addField(article.getDescriptionText(), position + 1, termPositions);
+			
+			this.lock.writeLock().lock();
+			
+			try {
+				//Checked again, as another thread may have added the article meanwhile
+				if (this.docIdsByKey.containsKey(key) != true) {
+					int docId = this.docCount;
+					
+					this.ensureDocCapacity();
+					this.titles[docId] = article.getTitle();
+					this.guids[docId] = article.getGuid();
+					this.times[docId] = this.parsePubDate(article.getPubDate());
+					this.updateNewestTime(docId);
+					this.docIdsByKey.put(key, docId);
+					this.docCount++;
+					
+					for (String term : termPositions.keySet()) {
+						PostingList list = this.postings.get(term);
+						
+						if (list == null) {
+							list = new PostingList();
+							this.postings.put(term, list);
+						}
+						
+						IntList positions = termPositions.get(term);
+						list.add(docId, positions.values, positions.size);
+					}
+					
+					retval = true;
+				}
+			} finally {
+				this.lock.writeLock().unlock();
+			}
+		}
+		
+		return retval;
+	}//end boolean addArticle (Atom)
+	
+	/**
+	 * Adds each of the given articles to the index.
+	 * 
+	 * @param articles The Vector<Atom> of articles to index
+	 * @return The int number of articles that were newly added
+	 */
+	public int addArticles (Vector<Atom> articles) {
+		int retval = 0;
+		
+		if (articles != null) {
+			for (int i = 0; i < articles.size(); i++) {
+				if (this.addArticle(articles.get(i))) {
+					retval++;
+				}
+			}
+		}
+		
+		return retval;
+	}//end int addArticles (Vector<Atom>)
+	
+	/**
+	 * Splits a query into clauses. Text in double quotes is a phrase clause; every other term is
+	 * a clause of its own.
+	 * 
+	 * @param query The String of the query
+	 * @return The Vector<Vector<String>> of clauses, each a sequence of terms
+	 */
+	private Vector<Vector<String>> parseQuery (String query) {
+		Vector<Vector<String>> retval = new Vector<Vector<String>>();
+		String[] parts = query.split("\"", -1);
+		
+		//Even-numbered parts are outside of quotes, odd-numbered parts are phrases
+		for (int i = 0; i < parts.length; i++) {
+			Vector<String> terms = tokenize(parts[i]);
+			
+			if ((i % 2) == 1) {
+				if (terms.size() > 0) {
+					retval.add(terms);
+				}
+			} else {
+				for (int j = 0; j < terms.size(); j++) {
+					Vector<String> clause = new Vector<String>();
+					clause.add(terms.get(j));
+					retval.add(clause);
+				}
+			}
+		}
+		
+		return retval;
+	}//end Vector<Vector<String>> parseQuery (String)
+	
+	/**
+	 * Checks whether the terms of a phrase occur at consecutive positions of the document all of
+	 * the given cursors are on.
+	 * 
+	 * @param cursors The PostingList.Cursor[] of the phrase terms, in phrase order
+	 * @return true if the phrase occurs in the document
+	 */
+	private boolean matchesPhrase (PostingList.Cursor[] cursors) {
+		boolean retval = false;
+		
+		for (int i = 0; (i < cursors[0].freq()) && (retval != true); i++) {
+			int start = cursors[0].position(i);
+			retval = true;
+			
+			for (int t = 1; (t < cursors.length) && retval; t++) {
+				retval = cursors[t].hasPosition(start + t);
+			}
+		}
+		
+		return retval;
+	}//end boolean matchesPhrase (PostingList.Cursor[])
+	
+	/**
+	 * Looks up the posting lists of the terms of each clause of a query.
+	 * 
+	 * @param clauses The Vector<Vector<String>> of query clauses
+	 * @return The PostingList[][] of each clause's terms, or null if there are no clauses or a term
+	 *         is not in the index, in which case nothing can match
+	 */
+	private PostingList[][] getPostingLists (Vector<Vector<String>> clauses) {
+		PostingList[][] retval = new PostingList[clauses.size()][];
+		
+		for (int c = 0; (c < clauses.size()) && (retval != null); c++) {
+			Vector<String> clause = clauses.get(c);
+			retval[c] = new PostingList[clause.size()];
+			
+			for (int t = 0; (t < clause.size()) && (retval != null); t++) {
+				retval[c][t] = this.postings.get(clause.get(t));
+				
+				if (retval[c][t] == null) {
+					retval = null;
+				}
+			}
+		}
+		
+		if ((retval != null) && (retval.length == 0)) {
+			retval = null;
+		}
+		
+		return retval;
+	}//end PostingList[][] getPostingLists (Vector<Vector<String>>)
+	
+	/**
+	 * Finds the documents in the given range of ids matching every clause of a query, by
+	 * leapfrogging cursors over the posting lists of all of the clause terms forward to a common
+	 * document id. The cursors are moved rarest term first, so that the common terms skip ahead to
+	 * the few documents the rare ones allow.
+	 * 
+	 * @param lists The PostingList[][] of each clause's terms
+	 * @param start The int first document id of the range
+	 * @param end The int document id following the range
+	 * @return The IntList of matching document ids, in increasing order
+	 */
+	private IntList match (PostingList[][] lists, int start, int end) {
+		IntList retval = new IntList();
+		PostingList.Cursor[][] cursors = new PostingList.Cursor[lists.length][];
+		Vector<PostingList.Cursor> leapfrogOrder = new Vector<PostingList.Cursor>();
+		Vector<Integer> docCounts = new Vector<Integer>();
+		boolean exhausted = false;
+		
+		for (int c = 0; c < lists.length; c++) {
+			cursors[c] = new PostingList.Cursor[lists[c].length];
+			
+			for (int t = 0; t < lists[c].length; t++) {
+				int i = docCounts.size();
+				
+				cursors[c][t] = lists[c][t].cursor();
+				
+				//Insertion sort by document count, as queries only have a few terms
+				while ((i > 0) && (docCounts.get(i - 1) > lists[c][t].getDocCount())) {
+					i--;
+				}
+				
+				leapfrogOrder.add(i, cursors[c][t]);
+				docCounts.add(i, lists[c][t].getDocCount());
+			}
+		}
+		
+		int target = start;
+		
+		while (exhausted != true) {
+			boolean aligned = true;
+			
+			//Move every cursor to the target, raising the target whenever a cursor passes it
+			for (int i = 0; (i < leapfrogOrder.size()) && (exhausted != true); i++) {
+				PostingList.Cursor cursor = leapfrogOrder.get(i);
+				
+				if ((cursor.advance(target) != true) || (cursor.docId() >= end)) {
+					exhausted = true;
+				} else if (cursor.docId() != target) {
+					target = cursor.docId();
+					aligned = false;
+				}
+			}
+			
+			if ((exhausted != true) && aligned) {
+				boolean phrasesMatch = true;
+				
+				for (int c = 0; (c < cursors.length) && phrasesMatch; c++) {
+					if (cursors[c].length > 1) {
+						phrasesMatch = this.matchesPhrase(cursors[c]);
+					}
+				}
+				
+				if (phrasesMatch) {
+					retval.add(target);
+				}
+				
+				target++;
+			}
+		}
+		
+		return retval;
+	}//end IntList match (PostingList[][], int, int)
+	
+	/**
+	 * Searches the index for articles matching the given query. Terms must all occur in an
+	 * article for it to match, and text in double quotes must occur as a phrase.
+	 * 
+	 * @param query The String of the query
+	 * @param maxResults The int maximum number of results to return
+	 * @return The Vector<SearchResult> of matching articles, newest first
+	 */
+	public Vector<SearchResult> search (String query, int maxResults) {
+		Vector<SearchResult> retval = new Vector<SearchResult>();
+		Vector<Vector<String>> clauses = this.parseQuery(query);
+		
+		this.lock.readLock().lock();
+		
+		try {
+			PostingList[][] lists = this.getPostingLists(clauses);
+			int[] top = new int[Math.max(0, Math.min(maxResults, this.docCount))];
+			int topSize = 0;
+			
+			//Newest window first; once the results are full, an older window can only add documents
+			//if one of them is newer than the oldest result. Ties go to the higher document id, which
+			//the results already have.
+			int window = ((lists != null) && (top.length > 0)) ? (this.docCount - 1) / SEARCH_WINDOW : -1;
+			
+			while ((window >= 0) && ((topSize < top.length) || (this.newestTimes[window] > this.times[top[topSize - 1]]))) {
+				int start = window * SEARCH_WINDOW;
+				IntList matches = this.match(lists, start, Math.min(start + SEARCH_WINDOW, this.docCount));
+				
+				//Keep the newest maxResults documents, in order, using insertion into a small array
+				for (int i = 0; i < matches.size; i++) {
+					int docId = matches.values[i];
+					
+					if ((topSize < top.length) || this.isNewer(docId, top[topSize - 1])) {
+						int j = (topSize < top.length) ? topSize++ : topSize - 1;
+						
+						while ((j > 0) && this.isNewer(docId, top[j - 1])) {
+							top[j] = top[j - 1];
+							j--;
+						}
+						
+						top[j] = docId;
+					}
+				}
+				
+				window--;
+			}
+			
+			for (int i = 0; i < topSize; i++) {
+				retval.add(new SearchResult(this.titles[top[i]], this.guids[top[i]], this.times[top[i]]));
+			}
+		} finally {
+			this.lock.readLock().unlock();
+		}
+		
+		return retval;
+	}//end Vector<SearchResult> search (String, int)
+	
+	/**
+	 * Compares two documents by recency; documents indexed later win ties.
+	 * 
+	 * @param docId The int id of the first document
+	 * @param otherDocId The int id of the second document
+	 * @return true if the first document is newer than the second
+	 */
+	private boolean isNewer (int docId, int otherDocId) {
+		boolean retval = (this.times[docId] > this.times[otherDocId]);
+		
+		if (this.times[docId] == this.times[otherDocId]) {
+			retval = (docId > otherDocId);
+		}
+		
+		return retval;
+	}//end boolean isNewer (int, int)
+	
+	/**
+	 * Returns the number of articles indexed.
+	 * 
+	 * @return The int number of articles
+	 */
+	public int size () {
+		this.lock.readLock().lock();
+		
+		try {
+			return this.docCount;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}//end int size ()
+	
+	/**
+	 * A single search hit.
+	 */
+	public static class SearchResult {
+		private String title = null; //article title
+		private String guid = null; //the URL of the original article
+		private long time = 0; //the publication time of the article
+		
+		/**
+		 * Returns the String of the article title.
+		 * 
+		 * @return The String of the article title
+		 */
+		public String getTitle () {
+			return this.title;
+		}//end String getTitle ()
+		
+		/**
+		 * Returns the String of the original article's URL.
+		 * 
+		 * @return The String of the original article's URL
+		 */
+		public String getGuid () {
+			return this.guid;
+		}//end String getGuid ()
+		
+		/**
+		 * Returns the publication time of the article.
+		 * 
+		 * @return The long publication time in milliseconds
+		 */
+		public long getTime () {
+			return this.time;
+		}//end long getTime ()
+		
+		/**
+		 * Constructor, which initializes the result fields.
+		 * 
+		 * @param title The String of the article title
+		 * @param guid The String of the original article's URL
+		 * @param time The long publication time in milliseconds
+		 */
+		public SearchResult (String title, String guid, long time) {
+			this.title = title;
+			this.guid = guid;
+			this.time = time;
+		}//end constructor
+	}//end class SearchResult
+	
+	/**
+	 * A minimal growable list of primitive ints.
+	 */
+	private static class IntList {
+		private int[] values = new int[4]; //the list elements
+		private int size = 0; //the number of elements in use
+		
+		/**
+		 * Appends the given value.
+		 * 
+		 * @param value The int to append
+		 */
+		private void add (int value) {
+			if (this.size == this.values.length) {
+				int[] newValues = new int[this.values.length * 2];
+				System.arraycopy(this.values, 0, newValues, 0, this.size);
+				this.values = newValues;
+			}
+			
+			this.values[this.size++] = value;
+		}//end void add (int)
+	}//end class IntList
+	
+	/**
+	 * Constructor, which creates an empty index.
+	 */
+	public ArticleIndex () {
+		this.postings = new HashMap<String, PostingList>();
+		this.docIdsByKey = new HashMap<String, Integer>();
+		this.titles = new String[INITIAL_DOCS];
+		this.guids = new String[INITIAL_DOCS];
+		this.times = new long[INITIAL_DOCS];
+		this.newestTimes = new long[(INITIAL_DOCS / SEARCH_WINDOW) + 1];
+		this.lock = new ReentrantReadWriteLock();
+		this.dateFormat = new SimpleDateFormat(PUB_DATE_FORMAT, Locale.ENGLISH);
+	}//end constructor
+}//end class ArticleIndex
@@ -0,0 +1,220 @@
+package search;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Vector;
+
+import rss_processing.Atom;
+
+/**
+ * The NearDuplicateDetector class finds articles whose text is almost the same, such as a
+ * syndicated story carried by several feeds or filed under several categories. The text of each
+ * article is cut into shingles of SHINGLE_SIZE consecutive words, and the MinHash signature of its
+ * shingles is taken: for each of NUM_HASHES hash functions, the smallest hash of any shingle. Two
+ * articles agree on a signature position with a probability equal to the Jaccard similarity of
+ * their shingle sets.
+ * 
+ * Rather than comparing every pair of signatures, the signatures are cut into BANDS bands of ROWS
+ * positions and each band is hashed into a bucket (locality-sensitive hashing). Only articles
+ * sharing a bucket in at least one band are compared, and they are near-duplicates if their
+ * signatures agree on at least SIMILARITY_THRESHOLD of the positions.
+ * 
+ * Signatures are kept between calls for the articles still being read, so each article's text is
+ * only shingled once.
+ * 
+ * @see control.TerracedNews
+ */
+public class NearDuplicateDetector {
+	private HashMap<String, int[]> signatures = null; //the signature of each article, keyed by article URL and title
+	private int[] hashMultipliers = null; //the odd multiplier of each hash function
+	private int[] hashOffsets = null; //the offset of each hash function
+	
+	private static final int SHINGLE_SIZE = 3; //Number of consecutive words in a shingle
+	private static final int MIN_SHINGLES = 4; //Number of shingles below which an article is too short to compare
+	private static final int NUM_HASHES = 128; //Number of hash functions, the length of a signature
+	private static final int BANDS = 32; //Number of LSH bands
+	private static final int ROWS = NUM_HASHES / BANDS; //Number of signature positions in each band
+	private static final double SIMILARITY_THRESHOLD = 0.8; //Share of agreeing positions above which articles are near-duplicates
+	private static final long HASH_SEED = 0x41744147L; //Fixed, so that signatures do not depend on the run
+	
+	/**
+	 * Scrambles the bits of a shingle's String hash, whose low bits are poorly spread, before it
+	 * is hashed again by each of the hash functions.
+	 * 
+	 * @param hash The int hash to mix
+	 * @return The int mixed hash
+	 */
+	private static int mix (int hash) {
+		int retval = hash;
+		
+		retval ^= retval >>> 16;
+		retval *= 0x85ebca6b;
+		retval ^= retval >>> 13;
+		retval *= 0xc2b2ae35;
+		retval ^= retval >>> 16;
+		
+		return retval;
+	}//end int mix (int)
+	
+	/**
+	 * Computes the MinHash signature of the given article text.
+	 * 
+	 * @param text The String of the article text
+	 * @return The int[] signature, or null if the text is too short to compare
+	 */
+	private int[] computeSignature (String text) {
+		Vector<String> words = ArticleIndex.tokenize(text);
+		int[] retval = null;
+		
+		if (words.size() - SHINGLE_SIZE + 1 >= MIN_SHINGLES) {
+			retval = new int[NUM_HASHES];
+			
+			for (int i = 0; i < NUM_HASHES; i++) {
+				retval[i] = Integer.MAX_VALUE;
+			}
+			
+			for (int start = 0; start + SHINGLE_SIZE <= words.size(); start++) {
+				int shingleHash = 0;
+				
+				for (int i = start; i < start + SHINGLE_SIZE; i++) {
+					shingleHash = (shingleHash * 31) + words.get(i).hashCode();
+				}
+				
+				shingleHash = mix(shingleHash);
+				
+				for (int i = 0; i < NUM_HASHES; i++) {
+					//An odd multiplier makes each function a permutation; the shift keeps hashes positive
+					int hash = (shingleHash * this.hashMultipliers[i] + this.hashOffsets[i]) >>> 1;
+					
+					if (hash < retval[i]) {
+						retval[i] = hash;
+					}
+				}
+			}
+		}
+		
+		return retval;
+	}//end int[] computeSignature (String)
+	
+	/**
+	 * Returns the share of positions on which two signatures agree, an estimate of the Jaccard
+	 * similarity of the two articles.
+	 * 
+	 * @param first The int[] of the first signature
+	 * @param second The int[] of the second signature
+	 * @return The double share of agreeing positions
+	 */
+	private double estimateSimilarity (int[] first, int[] second) {
+		int agreeing = 0;
+		
+		for (int i = 0; i < NUM_HASHES; i++) {
+			if (first[i] == second[i]) {
+				agreeing++;
+			}
+		}
+		
+		return (double) agreeing / NUM_HASHES;
+	}//end double estimateSimilarity (int[], int[])
+	
+	/**
+	 * Returns the bucket of the given band of a signature. The band number is part of the bucket,
+	 * so that equal values in different bands do not meet.
+	 * 
+	 * @param signature The int[] signature
+	 * @param band The int band number
+	 * @return The Long bucket key
+	 */
+	private Long getBucket (int[] signature, int band) {
+		int hash = 1;
+		
+		for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+			hash = (hash * 31) + signature[i];
+		}
+		
+		return Long.valueOf(((long) band << 32) | (hash & 0xFFFFFFFFL));
+	}//end Long getBucket (int[], int)
+	
+	/**
+	 * Groups the given articles into near-duplicates. The first article of each group, in the
+	 * order given, represents the group; every later article that is a near-duplicate of it is
+	 * mapped to it.
+	 * 
+	 * @param articles The Vector<Atom> of articles, in order of preference
+	 * @return The HashMap<Atom, Atom> of the representative of each near-duplicate article; articles
+	 *         without near-duplicates, and the representatives themselves, are not in it
+	 */
+	public synchronized HashMap<Atom, Atom> findDuplicates (Vector<Atom> articles) {
+		HashMap<Atom, Atom> retval = new HashMap<Atom, Atom>();
+		HashMap<Long, Vector<Atom>> buckets = new HashMap<Long, Vector<Atom>>();
+		HashMap<Atom, int[]> articleSignatures = new HashMap<Atom, int[]>();
+		HashSet<String> keys = new HashSet<String>();
+		
+		for (int i = 0; i < articles.size(); i++) {
+			Atom article = articles.get(i);
+			String key = article.getGuid() + "\n" + article.getTitle();
+			
+			if (this.signatures.containsKey(key) != true) {
+				this.signatures.put(key, this.computeSignature(article.getDescriptionText()));
+			}
+			
+			int[] signature = this.signatures.get(key);
+			Atom representative = null;
+			
+			keys.add(key);
+			
+			if (signature != null) {
+				articleSignatures.put(article, signature);
+				
+				//Only earlier articles sharing a bucket are candidates
+				for (int band = 0; (band < BANDS) && (representative == null); band++) {
+					Vector<Atom> bucket = buckets.get(this.getBucket(signature, band));
+					
+					for (int j = 0; (bucket != null) && (j < bucket.size()) && (representative == null); j++) {
+						Atom candidate = bucket.get(j);
+						
+						if (this.estimateSimilarity(signature, articleSignatures.get(candidate)) >= SIMILARITY_THRESHOLD) {
+							representative = candidate;
+						}
+					}
+				}
+				
+				if (representative != null) {
+					retval.put(article, representative);
+				} else {
+					//Only representatives go into the buckets, so every group keeps its first article
+					for (int band = 0; band < BANDS; band++) {
+						Long bucketKey = this.getBucket(signature, band);
+						
+						if (buckets.containsKey(bucketKey) != true) {
+							buckets.put(bucketKey, new Vector<Atom>());
+						}
+						
+						buckets.get(bucketKey).add(article);
+					}
+				}
+			}
+		}//end for
+		
+		//Forget the articles that are no longer read
+		this.signatures.keySet().retainAll(keys);
+		
+		return retval;
+	}//end HashMap<Atom, Atom> findDuplicates (Vector<Atom>)
+	
+	/**
+	 * Constructor, which sets up the hash functions.
+	 */
+	public NearDuplicateDetector () {
+		Random random = new Random(HASH_SEED);
+		
+		this.signatures = new HashMap<String, int[]>();
+		this.hashMultipliers = new int[NUM_HASHES];
+		this.hashOffsets = new int[NUM_HASHES];
+		
+		for (int i = 0; i < NUM_HASHES; i++) {
+			this.hashMultipliers[i] = random.nextInt() | 1;
+			this.hashOffsets[i] = random.nextInt();
+		}
+	}//end constructor
+}//end class NearDuplicateDetector
@@ -0,0 +1,364 @@
+package search;
+
+/**
+ * The PostingList class stores the postings for a single term of the ArticleIndex. Postings are
+ * kept in two growable byte arrays rather than as objects. The document array holds, for each
+ * posting, the delta from the previous document id, the number of occurrences of the term in the
+ * document and the number of bytes its positions take up; the position array holds the
+ * delta-encoded word positions. Keeping the positions apart lets term queries step over them
+ * without reading them. Everything is written as variable length integers (7 bits per byte, high
+ * bit set on every byte but the last).
+ * 
+ * Every SKIP_INTERVAL postings, the document id reached and the offsets into both arrays are noted
+ * in a skip list, so that a cursor advancing to a distant document can jump over whole blocks of
+ * postings instead of decoding them one at a time.
+ * 
+ * Document ids must be added in increasing order, which the ArticleIndex guarantees by assigning
+ * them sequentially.
+ * 
+ * @see search.ArticleIndex
+ */
+public class PostingList {
+	private ByteStream docs = null; //the encoded document ids, frequencies and position lengths
+	private ByteStream positions = null; //the encoded word positions
+	private int lastDocId = -1; //the last document id added, used for delta encoding
+	private int docCount = 0; //the number of documents containing the term
+	private int[] skipDocIds = null; //the id of the last document of each block of postings
+	private int[] skipDocOffsets = null; //the document array offset following each block
+	private int[] skipPositionOffsets = null; //the position array offset following each block
+	private int skipCount = 0; //the number of complete blocks
+	
+	private static final int INITIAL_CAPACITY = 16; //Initial size of each byte array
+	private static final int SKIP_INTERVAL = 32; //Number of postings in each block of the skip list
+	
+	/**
+	 * Appends a posting for the given document.
+	 * 
+	 * @param docId The int id of the document, greater than any id previously added
+	 * @param positions The int[] of word positions of the term in the document, in increasing order
+	 * @param count The int number of positions to use from the positions array
+	 */
+	public void add (int docId, int[] positions, int count) {
+		if (docId <= this.lastDocId) {
+			throw new IllegalArgumentException("Document ids must be added in increasing order");
+		}
+		
+		int positionsStart = this.positions.size;
+		int lastPosition = 0;
+		
+		for (int i = 0; i < count; i++) {
+			this.positions.writeVInt(positions[i] - lastPosition);
+			lastPosition = positions[i];
+		}
+		
+		this.docs.writeVInt(docId - this.lastDocId);
+		this.docs.writeVInt(count);
+		this.docs.writeVInt(this.positions.size - positionsStart);
+		
+		this.lastDocId = docId;
+		this.docCount++;
+		
+		if ((this.docCount % SKIP_INTERVAL) == 0) {
+			this.addSkip();
+		}
+	}//end void add (int, int[], int)
+	
+	/**
+	 * Notes the end of a complete block of postings in the skip list, growing the skip arrays if
+	 * they are full.
+	 */
+	private void addSkip () {
+		if (this.skipCount == this.skipDocIds.length) {
+			int newLength = Math.max(4, this.skipDocIds.length * 2);
+			int[] newDocIds = new int[newLength];
+			int[] newDocOffsets = new int[newLength];
+			int[] newPositionOffsets = new int[newLength];
+			
+			System.arraycopy(this.skipDocIds, 0, newDocIds, 0, this.skipCount);
+			System.arraycopy(this.skipDocOffsets, 0, newDocOffsets, 0, this.skipCount);
+			System.arraycopy(this.skipPositionOffsets, 0, newPositionOffsets, 0, this.skipCount);
+			
+			this.skipDocIds = newDocIds;
+			this.skipDocOffsets = newDocOffsets;
+			this.skipPositionOffsets = newPositionOffsets;
+		}
+		
+		this.skipDocIds[this.skipCount] = this.lastDocId;
+		this.skipDocOffsets[this.skipCount] = this.docs.size;
+		this.skipPositionOffsets[this.skipCount] = this.positions.size;
+		this.skipCount++;
+	}//end void addSkip ()
+	
+	/**
+	 * Returns the number of documents containing the term.
+	 * 
+	 * @return The int number of documents
+	 */
+	public int getDocCount () {
+		return this.docCount;
+	}//end int getDocCount ()
+	
+	/**
+	 * Returns a new Cursor positioned before the first posting.
+	 * 
+	 * @return The Cursor over this list
+	 */
+	public Cursor cursor () {
+		return new Cursor();
+	}//end Cursor cursor ()
+	
+	/**
+	 * A forward-only reader over the encoded postings. The positions of the current document are
+	 * only decoded when a phrase query asks for them, into a reusable int array so that iterating
+	 * does not allocate. Advancing uses the skip list to pass over blocks of postings that all come
+	 * before the target.
+	 */
+	public class Cursor {
+		private int docOffset = 0; //the read offset into the document array
+		private int positionOffset = 0; //the read offset of the next document's positions
+		private int remaining = 0; //the number of postings left to read
+		private int docId = -1; //the current document id
+		private int[] positions = new int[8]; //the positions in the current document
+		private int freq = 0; //the number of positions in the current document
+		private int positionsStart = 0; //the offset of the current document's positions
+		private boolean positionsPending = false; //true if the current positions have not been read
+		
+		/**
+		 * Decodes the positions of the current document, if they have not been decoded yet.
+		 */
+		private void decodePositions () {
+			if (this.positionsPending) {
+				byte[] data = PostingList.this.positions.data;
+				int offset = this.positionsStart;
+				int position = 0;
+				
+				if (this.freq > this.positions.length) {
+					this.positions = new int[Math.max(this.freq, this.positions.length * 2)];
+				}
+				
+				for (int i = 0; i < this.freq; i++) {
+					byte b = data[offset++];
+					int delta = b & 0x7F;
+					
+					for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+						b = data[offset++];
+						delta |= (b & 0x7F) << shift;
+					}
+					
+					position += delta;
+					this.positions[i] = position;
+				}
+				
+				this.positionsPending = false;
+			}
+		}//end void decodePositions ()
+		
+		/**
+		 * Reads a variable length integer from the document array.
+		 * 
+		 * @return The int value read
+		 */
+		private int readDocVInt () {
+			byte[] data = PostingList.this.docs.data;
+			byte b = data[this.docOffset++];
+			int value = b & 0x7F;
+			
+			for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+				b = data[this.docOffset++];
+				value |= (b & 0x7F) << shift;
+			}
+			
+			return value;
+		}//end int readDocVInt ()
+		
+		/**
+		 * Moves to the next posting.
+		 * 
+		 * @return true if there was another posting, false if the list is exhausted
+		 */
+		public boolean next () {
+			boolean retval = false;
+			
+			if (this.remaining > 0) {
+				this.docId += this.readDocVInt();
+				this.freq = this.readDocVInt();
+				this.positionsStart = this.positionOffset;
+				this.positionOffset += this.readDocVInt();
+				this.positionsPending = true;
+				this.remaining--;
+				retval = true;
+			} else {
+				this.docId = Integer.MAX_VALUE;
+			}
+			
+			return retval;
+		}//end boolean next ()
+		
+		/**
+		 * Moves forward to the first posting whose document id is at least the given target.
+		 * 
+		 * @param target The int document id to advance to
+		 * @return true if such a posting exists, false if the list is exhausted
+		 */
+		public boolean advance (int target) {
+			boolean retval = (this.docId >= target) && (this.docId != Integer.MAX_VALUE);
+			
+			if (this.docId < target) {
+				this.skipTo(target);
+			}
+			
+			while ((retval != true) && this.next()) {
+				retval = (this.docId >= target);
+			}
+			
+			return retval;
+		}//end boolean advance (int)
+		
+		/**
+		 * Jumps to the end of the last block of postings whose documents all come before the given
+		 * target, if that block lies ahead of the current posting. The cursor is then on the last
+		 * posting of the block, and its positions are not read.
+		 * 
+		 * @param target The int document id being advanced to
+		 */
+		private void skipTo (int target) {
+			PostingList list = PostingList.this;
+			int low = (list.docCount - this.remaining) / SKIP_INTERVAL; //the first block ending after the current posting
+			int high = list.skipCount - 1;
+			int block = -1;
+			
+			//Most targets lie within the current block, so only search once it is known to end before
+			//the target
+			if ((low <= high) && (list.skipDocIds[low] < target)) {
+				block = low;
+				low++;
+			} else {
+				high = -1;
+			}
+			
+			//Binary search for the last block ending before the target
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				
+				if (list.skipDocIds[mid] < target) {
+					block = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			
+			if (block != -1) {
+				this.docId = list.skipDocIds[block];
+				this.docOffset = list.skipDocOffsets[block];
+				this.positionOffset = list.skipPositionOffsets[block];
+				this.remaining = list.docCount - ((block + 1) * SKIP_INTERVAL);
+				this.positionsPending = false;
+			}
+		}//end void skipTo (int)
+		
+		/**
+		 * Returns the current document id, or Integer.MAX_VALUE once the list is exhausted.
+		 * 
+		 * @return The int document id
+		 */
+		public int docId () {
+			return this.docId;
+		}//end int docId ()
+		
+		/**
+		 * Checks whether the term occurs at the given position of the current document.
+		 * 
+		 * @param position The int word position to look for
+		 * @return true if the term occurs at that position
+		 */
+		public boolean hasPosition (int position) {
+			this.decodePositions();
+			
+			int low = 0;
+			int high = this.freq - 1;
+			boolean retval = false;
+			
+			while ((low <= high) && (retval != true)) {
+				int mid = (low + high) >>> 1;
+				
+				if (this.positions[mid] < position) {
+					low = mid + 1;
+				} else if (this.positions[mid] > position) {
+					high = mid - 1;
+				} else {
+					retval = true;
+				}
+			}
+			
+			return retval;
+		}//end boolean hasPosition (int)
+		
+		/**
+		 * Returns the number of positions in the current document.
+		 * 
+		 * @return The int number of positions
+		 */
+		public int freq () {
+			return this.freq;
+		}//end int freq ()
+		
+		/**
+		 * Returns the position at the given index of the current document.
+		 * 
+		 * @param index The int index, less than freq()
+		 * @return The int word position
+		 */
+		public int position (int index) {
+			this.decodePositions();
+			return this.positions[index];
+		}//end int position (int)
+		
+		/**
+		 * Constructor, which starts the cursor before the first posting.
+		 */
+		private Cursor () {
+			this.remaining = docCount;
+		}//end constructor
+	}//end class Cursor
+	
+	/**
+	 * A growable array of variable length integers.
+	 */
+	private static class ByteStream {
+		private byte[] data = new byte[INITIAL_CAPACITY]; //the encoded values
+		private int size = 0; //the number of bytes of data in use
+		
+		/**
+		 * Writes the given non-negative int as a variable length integer, doubling the array if
+		 * it is full.
+		 * 
+		 * @param value The int to write
+		 */
+		private void writeVInt (int value) {
+			if (this.size + 5 > this.data.length) {
+				byte[] newData = new byte[this.data.length * 2];
+				System.arraycopy(this.data, 0, newData, 0, this.size);
+				this.data = newData;
+			}
+			
+			while ((value & ~0x7F) != 0) {
+				this.data[this.size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			
+			this.data[this.size++] = (byte) value;
+		}//end void writeVInt (int)
+	}//end class ByteStream
+	
+	/**
+	 * Constructor, which creates an empty posting list.
+	 */
+	public PostingList () {
+		this.docs = new ByteStream();
+		this.positions = new ByteStream();
+		this.skipDocIds = new int[0];
+		this.skipDocOffsets = new int[0];
+		this.skipPositionOffsets = new int[0];
+	}//end constructor
+}//end class PostingList
@@ -0,0 +1,180 @@
+package search;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The SearchServer class exposes an ArticleIndex over a small HTTP interface bound to the local
+ * host. A query is made with
+ * 
+ *     GET /search?q=query+text&n=10
+ * 
+ * where terms in double quotes are matched as a phrase, and the matching articles are returned as
+ * a JSON document, newest first.
+ * 
+ * @see search.ArticleIndex
+ */
+public class SearchServer implements HttpHandler {
+	private ArticleIndex index = null; //the index to query
+	private HttpServer server = null; //the JDK HTTP server
+	
+	private static final String CONTEXT_PATH = "/search";
+	private static final int DEFAULT_RESULTS = 10; //Number of results returned when n is not given
+	private static final int MAX_RESULTS = 100; //Upper bound on n
+	private static final int HANDLER_THREADS = 2; //Number of threads answering queries
+	
+	/**
+	 * Parses the parameters of a URL query string.
+	 * 
+	 * @param rawQuery The String of the raw (still encoded) query string, may be null
+	 * @return The HashMap of parameter names to decoded values
+	 * @throws UnsupportedEncodingException
+	 * @throws IllegalArgumentException if a parameter holds a malformed escape, such as %zz
+	 */
+	private HashMap<String, String> parseParameters (String rawQuery) throws UnsupportedEncodingException {
+		HashMap<String, String> retval = new HashMap<String, String>();
+		
+		if (rawQuery != null) {
+			String[] pairs = rawQuery.split("&");
+			
+			for (int i = 0; i < pairs.length; i++) {
+				int equalsIdx = pairs[i].indexOf('=');
+				
+				if (equalsIdx > 0) {
+					retval.put(URLDecoder.decode(pairs[i].substring(0, equalsIdx), "UTF-8"),
+							URLDecoder.decode(pairs[i].substring(equalsIdx + 1), "UTF-8"));
+				}
+			}
+		}
+		
+		return retval;
+	}//end HashMap<String, String> parseParameters (String)
+	
+	/**
+	 * Escapes the given String for use inside a JSON string literal.
+	 * 
+	 * @param text The String to escape
+	 * @return The escaped String
+	 */
+	private static String escapeJson (String text) {
+		StringBuilder retval = new StringBuilder(text.length() + 8);
+		
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			
+			switch (c) {
+			case '"': retval.append("\\\""); break;
+			case '\\': retval.append("\\\\"); break;
+			case '\n': retval.append("\\n"); break;
+			case '\r': retval.append("\\r"); break;
+			case '\t': retval.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					retval.append(String.format("\\u%04x", (int) c));
+				} else {
+					retval.append(c);
+				}
+			}
+		}
+		
+		return retval.toString();
+	}//end String escapeJson (String)
+	
+	/**
+	 * Sends the given body as the response to the exchange.
+	 * 
+	 * @param exchange The HttpExchange to respond to
+	 * @param status The int HTTP status code
+	 * @param body The String of the JSON response body
+	 * @throws IOException
+	 */
+	private void respond (HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		
+		OutputStream os = exchange.getResponseBody();
+		os.write(bytes);
+		os.close();
+	}//end void respond (HttpExchange, int, String)
+	
+	/**
+	 * Implementing the handle method, which answers a single search request.
+	 * 
+	 * @param exchange The HttpExchange of the request
+	 * @throws IOException
+	 */
+	public void handle (HttpExchange exchange) throws IOException {
+		String query = null;
+		int maxResults = DEFAULT_RESULTS;
+		
+		//Catches malformed escapes as well as a bad n, both of which get the usage response
+		try {
+			HashMap<String, String> params = this.parseParameters(exchange.getRequestURI().getRawQuery());
+			query = params.get("q");
+			
+			if (params.containsKey("n")) {
+				maxResults = Math.min(Integer.parseInt(params.get("n")), MAX_RESULTS);
+			}
+		} catch (IllegalArgumentException iae) {
+			query = null;
+		}
+		
+		if ((query == null) || (maxResults < 0)) {
+			this.respond(exchange, 400, "{\"error\":\"usage: /search?q=terms&n=results\"}\n");
+		} else {
+			long start = System.nanoTime();
+			Vector<ArticleIndex.SearchResult> results = this.index.search(query, maxResults);
+			long tookMicros = (System.nanoTime() - start) / 1000;
+			
+			StringBuilder body = new StringBuilder();
+			body.append(String.format("{\"query\":\"%s\",\"tookMicros\":%d,\"results\":[", escapeJson(query), tookMicros));
+			
+			for (int i = 0; i < results.size(); i++) {
+				ArticleIndex.SearchResult result = results.get(i);
+				
+				if (i > 0) {
+					body.append(',');
+				}
+				
+				body.append(String.format("{\"title\":\"%s\",\"url\":\"%s\",\"time\":%d}",
+						escapeJson(result.getTitle()), escapeJson(result.getGuid()), result.getTime()));
+			}
+			
+			body.append("]}\n");
+			this.respond(exchange, 200, body.toString());
+		}
+	}//end void handle (HttpExchange)
+	
+	/**
+	 * Starts answering requests.
+	 */
+	public void start () {
+		this.server.start();
+	}//end void start ()
+	
+	/**
+	 * Constructor, which binds the server to the given port on the local host.
+	 * 
+	 * @param index The ArticleIndex to query
+	 * @param port The int port to listen on
+	 * @throws IOException if the port can not be bound
+	 */
+	public SearchServer (ArticleIndex index, int port) throws IOException {
+		this.index = index;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		this.server.createContext(CONTEXT_PATH, this);
+		this.server.setExecutor(Executors.newFixedThreadPool(HANDLER_THREADS));
+	}//end constructor
+}//end class SearchServer